@@ -0,0 +1,65 @@
+package se.omfilm.gameboy.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import se.omfilm.gameboy.internal.APU;
+import se.omfilm.gameboy.internal.APU.SoundId;
+import se.omfilm.gameboy.internal.PPU;
+import se.omfilm.gameboy.internal.memory.Memory;
+import se.omfilm.gameboy.io.sound.NullSoundPlayback;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steps the APU for the length of one frame with all four sounds playing to both terminals.
+ * The APU is stepped the same way as by the scheduler, at each of its events.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class APUBenchmark {
+    private APU apu;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        apu = new APU(new NullSoundPlayback());
+        apu.soundEnabled(0b1000_0000);
+        apu.channelControl(0b0111_0111);
+        apu.outputTerminal(0b1111_1111);
+
+        apu.length(SoundId.SOUND1_SQUARE_WAVE, 0b1000_0000);
+        apu.envelope(SoundId.SOUND1_SQUARE_WAVE, 0b1111_0000);
+        apu.lowFrequency(SoundId.SOUND1_SQUARE_WAVE, 0x83);
+        apu.highFrequency(SoundId.SOUND1_SQUARE_WAVE, 0b1000_0111);
+
+        apu.length(SoundId.SOUND2_SQUARE_WAVE, 0b0100_0000);
+        apu.envelope(SoundId.SOUND2_SQUARE_WAVE, 0b1111_0000);
+        apu.lowFrequency(SoundId.SOUND2_SQUARE_WAVE, 0xC1);
+        apu.highFrequency(SoundId.SOUND2_SQUARE_WAVE, 0b1000_0110);
+
+        Memory wavePatternRAM = apu.wavePatternRAM();
+        for (int i = 0; i < 16; i++) {
+            wavePatternRAM.writeByte(0xFF30 + i, i * 0x11);
+        }
+        apu.soundControl(SoundId.SOUND3_WAVE, 0b1000_0000);
+        apu.outputLevel(SoundId.SOUND3_WAVE, 0b0010_0000);
+        apu.lowFrequency(SoundId.SOUND3_WAVE, 0x00);
+        apu.highFrequency(SoundId.SOUND3_WAVE, 0b1000_0111);
+
+        apu.envelope(SoundId.SOUND4_NOISE, 0b1111_0000);
+        apu.polynomialCounter(SoundId.SOUND4_NOISE, 0b0101_0101);
+        apu.highFrequency(SoundId.SOUND4_NOISE, 0b1000_0000);
+    }
+
+    @Benchmark
+    public void stepFrame() {
+        int remaining = PPU.FRAME_CYCLES;
+        while (remaining > 0) {
+            int cycles = Math.min(remaining, Math.max(1, apu.cyclesUntilEvent()));
+            apu.step(cycles);
+            remaining -= cycles;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package se.omfilm.gameboy.benchmarks;
+
+import se.omfilm.gameboy.Gameboy;
+import se.omfilm.gameboy.internal.CPU;
+import se.omfilm.gameboy.internal.memory.Memory;
+import se.omfilm.gameboy.internal.memory.ROM;
+import se.omfilm.gameboy.io.color.FixedColorPalette;
+import se.omfilm.gameboy.io.controller.NullController;
+import se.omfilm.gameboy.io.screen.NullScreen;
+import se.omfilm.gameboy.io.serial.NullSerialConnection;
+import se.omfilm.gameboy.io.sound.NullSoundPlayback;
+
+/**
+ * A Gameboy without any window or sound that also gives access to the CPU and the memory, so they can be measured by themselves.
+ */
+class BenchmarkGameboy extends Gameboy {
+    BenchmarkGameboy(BlarggROM rom, CPU.Engine engine) {
+        super(new NullScreen(), FixedColorPalette.PRESET.MONOCHROME.getPalette(), new NullController(), new NullSerialConnection(), new NullSoundPlayback(), ROM.load(rom.read()), Speed.UNLIMITED, engine);
+        reset();
+    }
+
+    int stepCPU() {
+        return cpu.step(memory());
+    }
+
+    Memory mmu() {
+        return mmu;
+    }
+}
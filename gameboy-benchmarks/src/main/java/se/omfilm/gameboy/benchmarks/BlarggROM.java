@@ -0,0 +1,43 @@
+package se.omfilm.gameboy.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Objects;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * The test roms from Blargg that are bundled with the tests of the core, they exercise very different parts of the emulator.
+ */
+public enum BlarggROM {
+    CPU_INSTRS("cpu_instrs.zip", "cpu_instrs/cpu_instrs.gb"),
+    INSTR_TIMING("instr_timing.zip", "instr_timing/instr_timing.gb"),
+    MEM_TIMING("mem_timing-2.zip", "mem_timing-2/mem_timing.gb"),
+    DMG_SOUND("dmg_sound.zip", "dmg_sound/dmg_sound.gb"),
+    OAM_BUG("oam_bug.zip", "oam_bug/oam_bug.gb");
+
+    private final String zipName;
+    private final String fileName;
+
+    BlarggROM(String zipName, String fileName) {
+        this.zipName = zipName;
+        this.fileName = fileName;
+    }
+
+    public byte[] read() {
+        try (ZipInputStream zipFile = new ZipInputStream(Objects.requireNonNull(BlarggROM.class.getClassLoader().getResourceAsStream(zipName)))) {
+            ZipEntry entry;
+            while ((entry = zipFile.getNextEntry()) != null) {
+                if (fileName.equals(entry.getName())) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    zipFile.transferTo(out);
+                    return out.toByteArray();
+                }
+            }
+            throw new IllegalArgumentException(fileName + " not found in " + zipName);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
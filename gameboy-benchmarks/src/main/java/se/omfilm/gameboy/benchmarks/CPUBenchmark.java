@@ -0,0 +1,54 @@
+package se.omfilm.gameboy.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import se.omfilm.gameboy.Snapshot;
+import se.omfilm.gameboy.internal.CPU;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steps only the CPU, starting from a snapshot recorded after running a test rom for some frames.
+ * Nothing else is stepped so the rest of the machine is frozen, the instructions are the mix the rom executes from that point.
+ * Each invocation restores the snapshot first so the mix doesn't drift into a wait loop, that's a small part of the time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(CPUBenchmark.INSTRUCTIONS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CPUBenchmark {
+    static final int INSTRUCTIONS = 10_000;
+
+    @Param({"CPU_INSTRS", "INSTR_TIMING", "MEM_TIMING"})
+    public BlarggROM rom;
+
+    @Param
+    public CPU.Engine engine;
+
+    @Param({"60", "600"})
+    public int recordedAtFrame;
+
+    private BenchmarkGameboy gameboy;
+    private Snapshot recorded;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        gameboy = new BenchmarkGameboy(rom, engine);
+        for (int i = 0; i < recordedAtFrame; i++) {
+            gameboy.runFrame();
+        }
+        recorded = gameboy.snapshot();
+    }
+
+    @Benchmark
+    public int step() {
+        gameboy.restore(recorded);
+        int cycles = 0;
+        for (int i = 0; i < INSTRUCTIONS; i++) {
+            cycles += gameboy.stepCPU();
+        }
+        return cycles;
+    }
+}
@@ -0,0 +1,44 @@
+package se.omfilm.gameboy.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import se.omfilm.gameboy.Snapshot;
+import se.omfilm.gameboy.internal.CPU;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs whole frames of the test roms, this is what decides the frames per second.
+ * Every iteration starts over from the same frame so they all run the same part of the rom.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GameboyBenchmark {
+    @Param
+    public BlarggROM rom;
+
+    @Param
+    public CPU.Engine engine;
+
+    private BenchmarkGameboy gameboy;
+    private Snapshot start;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        gameboy = new BenchmarkGameboy(rom, engine);
+        start = gameboy.snapshot();
+    }
+
+    @Setup(Level.Iteration)
+    public void restart() {
+        gameboy.restore(start);
+    }
+
+    @Benchmark
+    public void runFrame() {
+        gameboy.runFrame();
+    }
+}
@@ -0,0 +1,76 @@
+package se.omfilm.gameboy.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import se.omfilm.gameboy.internal.CPU;
+import se.omfilm.gameboy.internal.memory.Memory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and writes spread over one region of the memory map at a time, since each region takes a different path through the MMU.
+ * The values written are the ones read during setup, writes to the rom regions are writes to the registers of the memory bank controller.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(MMUBenchmark.ACCESSES)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MMUBenchmark {
+    static final int ACCESSES = 256;
+
+    @Param
+    public Region region;
+
+    private Memory mmu;
+    private final int[] addresses = new int[ACCESSES];
+    private final int[] values = new int[ACCESSES];
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkGameboy gameboy = new BenchmarkGameboy(BlarggROM.CPU_INSTRS, CPU.Engine.INSTRUCTIONS);
+        for (int i = 0; i < 60; i++) {
+            gameboy.runFrame();
+        }
+        mmu = gameboy.mmu();
+        int size = region.to - region.from;
+        for (int i = 0; i < ACCESSES; i++) {
+            addresses[i] = region.from + ((i * 97) % size); //Not in order, but the same every time
+            values[i] = mmu.readByte(addresses[i]);
+        }
+    }
+
+    @Benchmark
+    public void readByte(Blackhole blackhole) {
+        for (int i = 0; i < ACCESSES; i++) {
+            blackhole.consume(mmu.readByte(addresses[i]));
+        }
+    }
+
+    @Benchmark
+    public void writeByte() {
+        for (int i = 0; i < ACCESSES; i++) {
+            mmu.writeByte(addresses[i], values[i]);
+        }
+    }
+
+    public enum Region {
+        ROM_BANK_0(0x0000, 0x4000),
+        ROM_BANK_SWITCHABLE(0x4000, 0x8000),
+        VIDEO_RAM(0x8000, 0xA000),
+        RAM(0xC000, 0xE000),
+        OBJECT_ATTRIBUTE_MEMORY(0xFE00, 0xFEA0),
+        LCD_REGISTERS(0xFF40, 0xFF44), //Not LY which can't be written or DMA which would start a transfer
+        ZERO_PAGE(0xFF80, 0xFFFF);
+
+        private final int from;
+        private final int to;
+
+        Region(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package se.omfilm.gameboy.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import se.omfilm.gameboy.internal.CPU;
+import se.omfilm.gameboy.internal.Interrupts;
+import se.omfilm.gameboy.internal.PPU;
+import se.omfilm.gameboy.internal.memory.ByteArrayMemory;
+import se.omfilm.gameboy.internal.memory.Memory;
+import se.omfilm.gameboy.io.color.FixedColorPalette;
+import se.omfilm.gameboy.io.screen.NullScreen;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders frames of random tiles with the background, the window and all the sprites enabled, reported per scanline.
+ * The PPU is stepped the same way as by the scheduler, at each of its events.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(PPUBenchmark.SCANLINES)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PPUBenchmark {
+    static final int SCANLINES = 154;
+
+    private PPU ppu;
+    private Interrupts interrupts;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ppu = new PPU(new NullScreen(), FixedColorPalette.PRESET.ORIGINAL_GREEN.getPalette());
+        interrupts = new CPU().interrupts();
+        Random random = new Random(0);
+
+        Memory videoRAM = ppu.videoRAM();
+        for (int address = 0x8000; address < 0xA000; address++) {
+            videoRAM.writeByte(address, random.nextInt(0x100));
+        }
+
+        byte[] objects = new byte[0x100];
+        for (int i = 0; i < 40; i++) {
+            objects[i * 4] = (byte) (16 + random.nextInt(144));
+            objects[i * 4 + 1] = (byte) (8 + random.nextInt(160));
+            objects[i * 4 + 2] = (byte) random.nextInt(0x100);
+            objects[i * 4 + 3] = (byte) random.nextInt(0x100);
+        }
+        ppu.transferDMA(0xC0, new ByteArrayMemory(0xC000, objects));
+
+        ppu.backgroundPalette(0b1110_0100);
+        ppu.objectPalette0(0b1110_0100);
+        ppu.objectPalette1(0b0001_1011);
+        ppu.windowY(72);
+        ppu.windowX(7);
+        ppu.control(0b1111_0011); //LCD, window with its own tile map, tile data at 0x8000, sprites and background
+    }
+
+    @Benchmark
+    public void renderFrame() {
+        int remaining = PPU.FRAME_CYCLES;
+        while (remaining > 0) {
+            int cycles = Math.min(remaining, Math.max(1, ppu.cyclesUntilEvent()));
+            ppu.step(cycles, interrupts);
+            remaining -= cycles;
+        }
+    }
+}
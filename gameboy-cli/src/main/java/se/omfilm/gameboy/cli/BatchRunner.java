@@ -0,0 +1,84 @@
+package se.omfilm.gameboy.cli;
+
+import se.omfilm.gameboy.Gameboy;
+import se.omfilm.gameboy.internal.CPU;
+import se.omfilm.gameboy.internal.memory.ROM;
+import se.omfilm.gameboy.io.color.ColorPalette;
+import se.omfilm.gameboy.io.controller.ScriptedController;
+import se.omfilm.gameboy.io.screen.NullScreen;
+import se.omfilm.gameboy.io.serial.NullSerialConnection;
+import se.omfilm.gameboy.io.sound.NullSoundPlayback;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many instances of the same ROM without any window or sound, each for a fixed number of frames with scripted input.
+ * The instances are independent of each other so they are spread over a thread pool to use all the cores.
+ */
+public class BatchRunner {
+    private final byte[] romData;
+    private final ColorPalette palette;
+    private final CPU.Engine engine;
+    private final String inputScript;
+    private final long frames;
+
+    public BatchRunner(byte[] romData, ColorPalette palette, CPU.Engine engine, String inputScript, long frames) {
+        this.romData = romData;
+        this.palette = palette;
+        this.engine = engine;
+        this.inputScript = inputScript;
+        this.frames = frames;
+    }
+
+    public void run(int instances, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            long start = System.nanoTime();
+            List<Future<Result>> futures = new ArrayList<>();
+            for (int i = 0; i < instances; i++) {
+                int instance = i;
+                futures.add(executor.submit(() -> runInstance(instance)));
+            }
+
+            long totalFrames = 0;
+            for (Future<Result> future : futures) {
+                Result result = future.get();
+                System.out.printf("Instance %d: %d frames in %.2f s, %.1f fps%n", result.instance, result.frames, result.seconds(), result.framesPerSecond());
+                totalFrames += result.frames;
+            }
+
+            double seconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+            System.out.printf("Total: %d instances on %d threads, %d frames in %.2f s, %.1f fps%n", instances, threads, totalFrames, seconds, totalFrames / seconds);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Result runInstance(int instance) {
+        ScriptedController controller = new ScriptedController(inputScript);
+        Gameboy gameboy = new Gameboy(new NullScreen(), palette, controller, new NullSerialConnection(), new NullSoundPlayback(), ROM.load(romData), Gameboy.Speed.UNLIMITED, engine);
+        gameboy.reset();
+
+        long start = System.nanoTime();
+        for (long frame = 0; frame < frames; frame++) {
+            controller.frame(frame);
+            gameboy.runFrame();
+        }
+        return new Result(instance, frames, System.nanoTime() - start);
+    }
+
+    private record Result(int instance, long frames, long nanos) {
+        double seconds() {
+            return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+        }
+
+        double framesPerSecond() {
+            return frames / seconds();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package se.omfilm.gameboy.cli;
 import org.apache.commons.cli.*;
 import se.omfilm.gameboy.Gameboy;
 import se.omfilm.gameboy.debug.DebuggableGameboy;
+import se.omfilm.gameboy.internal.CPU;
 import se.omfilm.gameboy.internal.PPU.Shade;
 import se.omfilm.gameboy.internal.memory.ROM;
 import se.omfilm.gameboy.io.color.ColorPalette;
@@ -10,13 +11,12 @@ import se.omfilm.gameboy.io.color.FixedColorPalette;
 import se.omfilm.gameboy.io.color.MultiColorPalette;
 import se.omfilm.gameboy.io.controller.GLFWCompositeController;
 import se.omfilm.gameboy.io.screen.GLFWScreen;
-import se.omfilm.gameboy.io.screen.Screen;
+import se.omfilm.gameboy.io.screen.FrameSink;
 import se.omfilm.gameboy.io.serial.ConsoleSerialConnection;
 import se.omfilm.gameboy.io.serial.NullSerialConnection;
 import se.omfilm.gameboy.io.serial.SerialConnection;
 import se.omfilm.gameboy.io.sound.JavaSoundPlayback;
 import se.omfilm.gameboy.io.sound.NullSoundPlayback;
-import se.omfilm.gameboy.io.sound.ResampledSoundPlayback;
 import se.omfilm.gameboy.io.sound.SoundPlayback;
 
 import java.io.IOException;
@@ -32,12 +32,18 @@ public class Main {
     private static final String ROM_ARG = "rom";
     private static final String PALETTE_ARG = "palette";
     private static final String SCREEN_ARG = "screen";
-    private static final String RESAMPLE_ARG = "resample";
+    private static final String SAMPLE_RATE_ARG = "samplerate";
     private static final String MUTE_ARG = "mute";
     private static final String SERIAL_ARG = "serial";
     private static final String DEBUG_ARG = "debug";
+    private static final String ENGINE_ARG = "engine";
+    private static final String HEADLESS_ARG = "headless";
+    private static final String FRAMES_ARG = "frames";
+    private static final String THREADS_ARG = "threads";
+    private static final String INPUT_ARG = "input";
+    private static final String REWIND_ARG = "rewind";
 
-    public static void main(String[] args) throws IOException, ParseException {
+    public static void main(String[] args) throws Exception {
         Options options = new Options();
         options.addOption("h", HELP_ARG, false, "Prints this message");
         options.addOption("b", BOOT_ARG, true, "Path to the boot ROM");
@@ -45,15 +51,23 @@ public class Main {
         options.addOption("p", PALETTE_ARG, true, "The color palette to use");
         options.addOption("sp", SPEED_ARG, true, "The speed to limit the emulator to");
         options.addOption("sc", SCREEN_ARG, true, "The screen mode to display the emulator in");
-        options.addOption("r", RESAMPLE_ARG, true, "The mode to use for resampling sound");
+        options.addOption("sr", SAMPLE_RATE_ARG, true, "The sampling rate to play sound at");
         options.addOption("m", MUTE_ARG, false, "If the emulator shouldn't produce any sound");
         options.addOption("se", SERIAL_ARG, false, "If the emulator should output serial data to console");
         options.addOption("d", DEBUG_ARG, false, "If the debugger should be used");
+        options.addOption("e", ENGINE_ARG, true, "The CPU engine to interpret the instructions with");
+        options.addOption("hl", HEADLESS_ARG, true, "Run this many instances without window or sound and report the speed");
+        options.addOption("f", FRAMES_ARG, true, "The number of frames each headless instance should run");
+        options.addOption("t", THREADS_ARG, true, "The number of threads to run the headless instances on");
+        options.addOption("i", INPUT_ARG, true, "Buttons to press in headless mode, such as START@60,A@120-130");
+        options.addOption("rw", REWIND_ARG, true, "Megabytes of memory to keep for rewinding with backspace, 0 to disable");
         CommandLineParser parser = new DefaultParser();
         CommandLine result = parser.parse(options, args);
 
         if (result.hasOption("help")) {
             new HelpFormatter().printHelp("java -jar gameboy.jar", options);
+        } else if (result.hasOption(HEADLESS_ARG)) {
+            runHeadless(result);
         } else {
             run(result);
         }
@@ -69,26 +83,58 @@ public class Main {
         ColorPalette palette = parsePalette(cli.getOptionValue(PALETTE_ARG, FixedColorPalette.PRESET.ORIGINAL_GREEN.toString()));
         GLFWScreen.Mode mode = GLFWScreen.Mode.valueOf(cli.getOptionValue(SCREEN_ARG, GLFWScreen.Mode.SCALE_4X.toString()));
         Gameboy.Speed speed = Gameboy.Speed.valueOf(cli.getOptionValue(SPEED_ARG, Gameboy.Speed.NORMAL.toString()));
+        CPU.Engine engine = CPU.Engine.valueOf(cli.getOptionValue(ENGINE_ARG, CPU.Engine.INSTRUCTIONS.toString()));
         GLFWCompositeController controller = new GLFWCompositeController();
-        Screen screen = new GLFWScreen(rom.name(), controller, mode);
+        FrameSink screen = new GLFWScreen(rom.name(), controller, mode);
         SoundPlayback sound = createSound(cli, speed);
         SerialConnection serial = createSerial(cli);
 
-        Gameboy gameboy = createGameboy(cli.hasOption(DEBUG_ARG), rom, palette, speed, controller, screen, sound, serial);
+        Gameboy gameboy = createGameboy(cli.hasOption(DEBUG_ARG), rom, palette, speed, engine, controller, screen, sound, serial);
+        long rewindMegabytes = Long.parseLong(cli.getOptionValue(REWIND_ARG, "16"));
+        if (rewindMegabytes > 0) {
+            gameboy = gameboy.withRewind(1, rewindMegabytes * 1024 * 1024);
+        }
         if (cli.hasOption(BOOT_ARG)) {
             Path bootPath = Paths.get(cli.getOptionValue(BOOT_ARG));
             gameboy = gameboy.withBootData(Files.readAllBytes(bootPath));
         } else {
             gameboy.reset();
         }
+        stopOnExit(gameboy);
         gameboy.run();
     }
 
-    private static Gameboy createGameboy(boolean debug, ROM rom, ColorPalette palette, Gameboy.Speed speed, GLFWCompositeController controller, Screen screen, SoundPlayback sound, SerialConnection serial) {
+    /**
+     * Closing the window exits right away, so the Gameboy is stopped and given a moment to save the RAM of the cartridge before exiting.
+     */
+    private static void stopOnExit(Gameboy gameboy) {
+        Thread emulatorThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            gameboy.stop();
+            try {
+                emulatorThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+    }
+
+    private static void runHeadless(CommandLine cli) throws Exception {
+        byte[] romData = Files.readAllBytes(Paths.get(cli.getOptionValue(ROM_ARG)));
+        ColorPalette palette = parsePalette(cli.getOptionValue(PALETTE_ARG, FixedColorPalette.PRESET.ORIGINAL_GREEN.toString()));
+        CPU.Engine engine = CPU.Engine.valueOf(cli.getOptionValue(ENGINE_ARG, CPU.Engine.INSTRUCTIONS.toString()));
+        int instances = Integer.parseInt(cli.getOptionValue(HEADLESS_ARG));
+        int threads = Integer.parseInt(cli.getOptionValue(THREADS_ARG, String.valueOf(Runtime.getRuntime().availableProcessors())));
+        long frames = Long.parseLong(cli.getOptionValue(FRAMES_ARG, "3600"));
+
+        new BatchRunner(romData, palette, engine, cli.getOptionValue(INPUT_ARG), frames).run(instances, threads);
+    }
+
+    private static Gameboy createGameboy(boolean debug, ROM rom, ColorPalette palette, Gameboy.Speed speed, CPU.Engine engine, GLFWCompositeController controller, FrameSink screen, SoundPlayback sound, SerialConnection serial) {
         if (debug) {
             return new DebuggableGameboy(screen, palette, controller, serial, sound, rom, speed);
         }
-        return new Gameboy(screen, palette, controller, serial, sound, rom, speed);
+        return new Gameboy(screen, palette, controller, serial, sound, rom, speed, engine);
     }
 
     private static SerialConnection createSerial(CommandLine cli) {
@@ -101,8 +147,8 @@ public class Main {
 
     private static SoundPlayback createSound(CommandLine cli, Gameboy.Speed speed) {
         if (speed != Gameboy.Speed.HALF && !cli.hasOption(MUTE_ARG)) { //As long as we're playing it on normal or faster speed we can just drop samples
-            ResampledSoundPlayback.Filter filter = ResampledSoundPlayback.Filter.valueOf(cli.getOptionValue(RESAMPLE_ARG, ResampledSoundPlayback.Filter.FLAT.toString()));
-            return new ResampledSoundPlayback(new JavaSoundPlayback(), filter);
+            int samplingRate = Integer.parseInt(cli.getOptionValue(SAMPLE_RATE_ARG, String.valueOf(SoundPlayback.SAMPLING_RATE)));
+            return new JavaSoundPlayback(samplingRate, speed == Gameboy.Speed.NORMAL);
         }
         return new NullSoundPlayback();
     }
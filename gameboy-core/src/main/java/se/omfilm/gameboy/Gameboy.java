@@ -5,30 +5,74 @@ import se.omfilm.gameboy.internal.memory.Memory;
 import se.omfilm.gameboy.internal.memory.ROM;
 import se.omfilm.gameboy.io.color.ColorPalette;
 import se.omfilm.gameboy.io.controller.Controller;
+import se.omfilm.gameboy.io.screen.FrameSink;
 import se.omfilm.gameboy.io.screen.Screen;
 import se.omfilm.gameboy.io.serial.SerialConnection;
 import se.omfilm.gameboy.io.sound.SoundPlayback;
-import se.omfilm.gameboy.util.Runner;
+import se.omfilm.gameboy.util.Pacing;
+import se.omfilm.gameboy.util.RewindBuffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 public class Gameboy {
+    private static final int STATE_MAGIC = 0x47425354; //GBST
+    private static final int STATE_VERSION = 2;
+    private static final int STATE_INITIAL_CAPACITY = 64 * 1024;
+    private static final int SNAPSHOT_INITIAL_CAPACITY = 1024;
+
     protected final MMU mmu;
     protected final CPU cpu;
     private final PPU ppu;
     private final APU apu;
     private final Timer timer;
     private final Input input;
+    private final Controller controller;
+    private final Scheduler scheduler;
+    private final IdleLoopDetector idleLoops;
+    private final SoundPlayback soundPlayback;
+    private final int romChecksum;
 
     private final Speed speed;
-    private boolean running = false;
+    private Pacing pacing;
+    private boolean skipIdleLoops = true;
+    private volatile boolean running = false;
+    private long elapsedCycles = 0;
+    private long targetCycles = 0;
+    private RewindBuffer rewind;
+    private int framesPerRewind;
+    private long frames = 0;
+    private boolean newestRewindStateShown = false;
+    private ByteBuffer rewindState = ByteBuffer.allocate(STATE_INITIAL_CAPACITY);
+
+    public Gameboy(FrameSink frameSink, ColorPalette colorPalette, Controller controller, SerialConnection serial, SoundPlayback soundPlayback, ROM rom, Speed speed) {
+        this(frameSink, colorPalette, controller, serial, soundPlayback, rom, speed, CPU.Engine.INSTRUCTIONS);
+    }
 
-    public Gameboy(Screen screen, ColorPalette colorPalette, Controller controller, SerialConnection serial, SoundPlayback soundPlayback, ROM rom, Speed speed) {
-        this.cpu = new CPU();
-        this.ppu = new PPU(screen, colorPalette);
+    public Gameboy(FrameSink frameSink, ColorPalette colorPalette, Controller controller, SerialConnection serial, SoundPlayback soundPlayback, ROM rom, Speed speed, CPU.Engine engine) {
+        this.cpu = new CPU(engine);
+        this.ppu = new PPU(frameSink, colorPalette);
         this.apu = new APU(soundPlayback);
         this.timer = new Timer();
         input = new Input(controller);
-        this.mmu = new MMU(rom, ppu, apu, cpu.interrupts(), timer, serial, input);
+        this.controller = controller;
+        this.scheduler = new Scheduler();
+        this.mmu = new MMU(rom, ppu, apu, cpu.interrupts(), timer, serial, input, scheduler);
+        this.idleLoops = new IdleLoopDetector(cpu, mmu, timer, scheduler);
+        this.soundPlayback = soundPlayback;
+        this.romChecksum = rom.checksum();
         this.speed = speed;
+        this.pacing = defaultPacing();
+
+        Interrupts interrupts = cpu.interrupts();
+        scheduler.register(Scheduler.Event.INPUT, cycles -> input.step(cycles, interrupts), input::cyclesUntilEvent);
+        scheduler.register(Scheduler.Event.TIMER, cycles -> timer.step(cycles, interrupts), timer::cyclesUntilEvent);
+        scheduler.register(Scheduler.Event.PPU, cycles -> ppu.step(cycles, interrupts), ppu::cyclesUntilEvent);
+        scheduler.register(Scheduler.Event.APU, apu::step, apu::cyclesUntilEvent);
+        scheduler.register(Scheduler.Event.CARTRIDGE, mmu::step, () -> CPU.FREQUENCY);
     }
 
     public Gameboy withBootData(byte[] boot) {
@@ -36,16 +80,51 @@ public class Gameboy {
         return this;
     }
 
+    /**
+     * Loops that only wait for the PPU or the timer are skipped to when the value they wait for can change, unless disabled.
+     * The result is the same either way but stepping through the code gets confusing.
+     */
+    public Gameboy withIdleLoopSkipping(boolean enabled) {
+        this.skipIdleLoops = enabled;
+        mmu.countWrites(enabled);
+        idleLoops.reset();
+        return this;
+    }
+
+    public Gameboy withPacing(Pacing pacing) {
+        this.pacing = pacing;
+        return this;
+    }
+
+    /**
+     * Saves the state every framesPerState:th frame to be able to rewind, keeping as many states as fits in maxBytes.
+     */
+    public Gameboy withRewind(int framesPerState, long maxBytes) {
+        this.rewind = new RewindBuffer(maxBytes);
+        this.framesPerRewind = framesPerState;
+        return this;
+    }
+
+    /**
+     * Runs frame by frame on the calling thread until stopped, waiting between the frames as decided by the pacing.
+     * While the controller is rewinding it goes backwards instead. RAM backed by a battery is persisted when stopped.
+     */
     public void run() {
         running = true;
         try {
-            if (speed != Speed.UNLIMITED) {
-                Runner.atFrequency(this::stepFrequency, speed.frequency);
-            } else {
-                Runner.atMaximumCapacity(this::stepFrequency);
+            while (running) {
+                if (isRewinding()) {
+                    rewindFrame();
+                } else {
+                    runFrame();
+                }
+                pacing.awaitNextFrame();
             }
-        } catch (Exception e) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
             running = false;
+            mmu.flush();
         }
     }
 
@@ -54,28 +133,224 @@ public class Gameboy {
         apu.reset();
         ppu.reset();
         timer.reset();
+        scheduler.syncAll();
     }
 
     public void stop() {
         running = false;
     }
 
-    private boolean stepFrequency() throws Exception {
-        Runner.times(this::step, CPU.FREQUENCY / Screen.FREQUENCY); //TODO: Should be 70224 but is not even dividable
-        return running;
+    /**
+     * Unless given a pacing it's decided by the speed. At normal speed a sound device that blocks while its buffer is above the target fill
+     * keeps the emulator in sync with the sound by itself, so then it doesn't need to wait at all.
+     */
+    private Pacing defaultPacing() {
+        if (speed == Speed.UNLIMITED || (speed == Speed.NORMAL && soundPlayback.pacing())) {
+            return Pacing.unthrottled();
+        }
+        return Pacing.wallClock(speed.frequency);
+    }
+
+    /**
+     * Runs the length of one frame, the instruction that passes the end is finished and the extra cycles are taken from the next call.
+     * The frames are then exactly as long as the frames of the PPU and will not drift compared to VBlank.
+     */
+    public void runFrame() {
+        if (rewind != null) {
+            newestRewindStateShown = frames++ % framesPerRewind == 0;
+            if (newestRewindStateShown) {
+                rewind.push(rewindState());
+            }
+        }
+        runCycles(PPU.FRAME_CYCLES);
+    }
+
+    /**
+     * Goes back to the most recently saved state for rewinding and runs one frame from it so it's shown on the screen.
+     * The states are saved before running the frame, so if the newest is where the frame on the screen started it's skipped to not show that frame again.
+     * The frame run here isn't saved, so calling this repeatedly steps further back. Returns false if there is nothing more to rewind to.
+     */
+    public boolean rewindFrame() {
+        if (rewind == null) {
+            return false;
+        }
+        if (newestRewindStateShown) {
+            rewind.pop();
+            newestRewindStateShown = false;
+        }
+        ByteBuffer state = rewind.pop();
+        if (state == null) {
+            return false;
+        }
+        loadState(state);
+        runCycles(PPU.FRAME_CYCLES);
+        return true;
+    }
+
+    /**
+     * Runs until the PPU enters VBlank. While the LCD is turned off there is no VBlank, then it stops after the length of one frame.
+     */
+    public void runUntilVBlank() {
+        long vblanks = ppu.vblanks();
+        targetCycles = elapsedCycles + PPU.FRAME_CYCLES;
+        while (ppu.vblanks() == vblanks && elapsedCycles < targetCycles) {
+            step();
+        }
+        targetCycles = elapsedCycles;
+    }
+
+    /**
+     * Runs the number of cycles counted from where the previous run should have ended, so the instructions passing the end doesn't add up over time.
+     */
+    public void runCycles(long cycles) {
+        targetCycles = Math.max(targetCycles, elapsedCycles) + cycles;
+        while (elapsedCycles < targetCycles) {
+            step();
+        }
+    }
+
+    /**
+     * Writes the state of the whole machine into the buffer, throws BufferOverflowException if it doesn't fit.
+     * The state can only be loaded into a Gameboy running the same ROM.
+     */
+    public void saveState(ByteBuffer buffer) {
+        saveState(new StateWriter(buffer));
+    }
+
+    public void saveState(OutputStream out) throws IOException {
+        StateWriter writer = new StateWriter(STATE_INITIAL_CAPACITY);
+        saveState(writer);
+        ByteBuffer state = writer.written();
+        out.write(state.array(), state.arrayOffset() + state.position(), state.remaining());
+    }
+
+    public void loadState(ByteBuffer buffer) {
+        loadState(new StateReader(buffer));
+    }
+
+    public void loadState(InputStream in) throws IOException {
+        loadState(ByteBuffer.wrap(in.readAllBytes()));
+    }
+
+    /**
+     * Takes a snapshot of the state where only the pages of memory written since the previous snapshot are copied.
+     */
+    public Snapshot snapshot() {
+        StateWriter writer = new StateWriter(SNAPSHOT_INITIAL_CAPACITY, true);
+        saveState(writer);
+        return new Snapshot(writer.written(), writer.sharedPages());
+    }
+
+    /**
+     * Restores a snapshot taken from this or another instance running the same ROM, this is how an instance is forked.
+     * Only the pages that differs from what the memory currently contains are copied.
+     */
+    public void restore(Snapshot snapshot) {
+        loadState(new StateReader(snapshot.state(), snapshot.pages()));
+    }
+
+    /**
+     * The controller is normally only updated while running, so it has to be updated here to notice when to stop rewinding.
+     */
+    private boolean isRewinding() {
+        if (rewind == null) {
+            return false;
+        }
+        controller.update();
+        return controller.isRewinding();
+    }
+
+    /**
+     * Saves into the same buffer every time, it's copied by the rewind buffer. The buffer grows if the state doesn't fit.
+     */
+    private ByteBuffer rewindState() {
+        while (true) {
+            try {
+                rewindState.clear();
+                saveState(rewindState);
+                return rewindState.flip();
+            } catch (BufferOverflowException e) {
+                rewindState = ByteBuffer.allocate(rewindState.capacity() * 2);
+            }
+        }
+    }
+
+    /**
+     * All components are caught up first, so the state is the same as if they had been stepped after every instruction.
+     */
+    private void saveState(StateWriter out) {
+        scheduler.syncAll();
+        out.writeInt(STATE_MAGIC);
+        out.writeInt(STATE_VERSION);
+        out.writeInt(romChecksum);
+        out.writeBoolean(mmu.isBooting());
+        out.writeLong(scheduler.now());
+        out.writeLong(elapsedCycles);
+        out.writeLong(targetCycles);
+        cpu.saveState(out);
+        mmu.saveState(out);
+        ppu.saveState(out);
+        apu.saveState(out);
+        timer.saveState(out);
+        input.saveState(out);
+    }
+
+    /**
+     * The whole header is checked before anything is loaded, so a state that can't be loaded leaves this instance as it was.
+     */
+    private void loadState(StateReader in) {
+        if (in.readInt() != STATE_MAGIC) {
+            throw new IllegalArgumentException("Not a saved state");
+        }
+        int version = in.readInt();
+        if (version != STATE_VERSION) {
+            throw new IllegalArgumentException("Unsupported version of saved state: " + version);
+        }
+        if (in.readInt() != romChecksum) {
+            throw new IllegalArgumentException("The state was saved for another ROM");
+        }
+        boolean booting = in.readBoolean();
+        if (booting && !mmu.isBooting()) {
+            throw new IllegalArgumentException("The state was saved while running the boot ROM, which isn't loaded");
+        }
+        long now = in.readLong();
+        elapsedCycles = in.readLong();
+        targetCycles = in.readLong();
+        cpu.loadState(in);
+        mmu.loadState(in, booting);
+        ppu.loadState(in);
+        apu.loadState(in);
+        timer.loadState(in);
+        input.loadState(in);
+        scheduler.restore(now);
+        idleLoops.reset();
     }
 
     protected Integer step() {
-        Interrupts interrupts = cpu.interrupts();
-        int cycles = cpu.step(memory());
-        input.step(cycles, interrupts);
-        timer.step(cycles, interrupts);
-        ppu.step(cycles, interrupts);
-        apu.step(cycles);
-        mmu.step(cycles);
+        int cycles = cpu.isWaitingForInterrupt() ? haltedCycles() : cpu.step(memory());
+        scheduler.advance(cycles);
+        elapsedCycles += cycles;
+        if (skipIdleLoops) {
+            int skipped = (int) idleLoops.skippableCycles(targetCycles - elapsedCycles);
+            if (skipped > 0) {
+                scheduler.advance(skipped);
+                elapsedCycles += skipped;
+                cycles += skipped;
+            }
+        }
         return cycles;
     }
 
+    /**
+     * While halted only the other components can request the interrupt that wakes the CPU, and they are only stepped at their deadlines.
+     * So instead of stepping 4 cycles at a time all the steps up to the next deadline are taken at once, or up to where the current run ends.
+     * It's rounded up to whole steps to end at the same cycle as if each had been stepped.
+     */
+    private int haltedCycles() {
+        long cycles = Math.min(scheduler.cyclesUntilNextDeadline(), targetCycles - elapsedCycles);
+        return (int) Math.max(1, (cycles + 3) / 4) * 4;
+    }
+
     protected Memory memory() {
         return mmu;
     }
@@ -0,0 +1,28 @@
+package se.omfilm.gameboy;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * The state of a Gameboy kept in memory, to restore it later or to fork other instances running the same ROM from it.
+ * The pages of the memories are shared with the other snapshots taken from the same instance where they haven't changed,
+ * so taking one only costs copying the pages written since the previous.
+ * A snapshot is never modified, so it can be restored any number of times and from any thread.
+ */
+public final class Snapshot {
+    private final ByteBuffer state;
+    private final List<byte[][]> pages;
+
+    Snapshot(ByteBuffer state, List<byte[][]> pages) {
+        this.state = state.asReadOnlyBuffer();
+        this.pages = List.copyOf(pages);
+    }
+
+    ByteBuffer state() {
+        return state.duplicate();
+    }
+
+    List<byte[][]> pages() {
+        return pages;
+    }
+}
@@ -6,16 +6,18 @@ import se.omfilm.gameboy.io.sound.SoundPlayback;
 import se.omfilm.gameboy.util.EnumByValue;
 import se.omfilm.gameboy.util.Runner.Counter;
 
-import static se.omfilm.gameboy.io.sound.SoundPlayback.SAMPLING_RATE;
+import static se.omfilm.gameboy.io.sound.SoundPlayback.CHANNELS;
+import static se.omfilm.gameboy.io.sound.SoundPlayback.TARGET_BUFFER_FILL;
 import static se.omfilm.gameboy.util.Runner.counter;
 
 public class APU {
     private static final int WAVE_PATTERNS = 32;
+    private static final int FRAME_CYCLES = CPU.FREQUENCY / 64;
+    private static final double MAX_RATE_ADJUSTMENT = 0.005; //Small enough to not be heard as a change in pitch
 
     private final SoundPlayback device;
 
     private final Counter durationCounter = counter(this::stepDuration, CPU.FREQUENCY / 256);
-    private final Counter sampleCounter = counter(this::playSample, CPU.FREQUENCY / SAMPLING_RATE);
     private final Counter envelopeCounter = counter(this::stepEnvelopes, CPU.FREQUENCY / 64);
     private final Counter sweepCounter = counter(this::stepSweep, CPU.FREQUENCY / 128);
 
@@ -28,23 +30,81 @@ public class APU {
     private final Channel leftChannel = new Channel(Terminal.LEFT);
     private final Channel rightChannel = new Channel(Terminal.RIGHT);
 
+    private final BandLimitedBuffer leftBuffer;
+    private final BandLimitedBuffer rightBuffer;
+    private final byte[] sampleBlock;
+    private int frameCycle = 0;
+
     private final NibbleArrayMemory wavePatternRAM = new NibbleArrayMemory(0xFF30, new byte[WAVE_PATTERNS]);
 
     private boolean enabled = false;
 
     public APU(SoundPlayback device) {
         this.device = device;
-        device.start(SAMPLING_RATE); //TODO: this should probably be called from somewhere else and not the constructor
+        int samplingRate = device.samplingRate();
+        this.leftBuffer = new BandLimitedBuffer(samplingRate, FRAME_CYCLES);
+        this.rightBuffer = new BandLimitedBuffer(samplingRate, FRAME_CYCLES);
+        this.sampleBlock = new byte[leftBuffer.capacity() * CHANNELS];
+        device.start(samplingRate); //TODO: this should probably be called from somewhere else and not the constructor
     }
 
+    /**
+     * Only the cycles where a counter triggers are stepped one by one, in between nothing changes except the frequency timers
+     * so they are advanced over all those cycles at once.
+     * The output level is only checked after a trigger and every change is added to the band-limited buffers at the cycle it happened,
+     * once per frame those are turned into samples for the device.
+     */
     public void step(int cycles) {
-        for (int i = 0; i < cycles; i++) {
-            durationCounter.step();
-            stepFrequency(); //Commenting out this makes the emulator run i 200fps more, can it be optimized?
-            envelopeCounter.step();
-            sweepCounter.step();
-            sampleCounter.step();
+        updateOutput();
+        while (cycles > 0) {
+            if (frameCycle == FRAME_CYCLES) {
+                endFrame();
+            }
+            int untilTrigger = cyclesUntilTrigger();
+            if (untilTrigger == 0) {
+                stepCycle();
+                frameCycle++;
+                cycles--;
+                updateOutput();
+            } else {
+                int skipped = Math.min(cycles, untilTrigger);
+                skipCycles(skipped);
+                frameCycle += skipped;
+                cycles -= skipped;
+            }
+        }
+    }
+
+    private void stepCycle() {
+        durationCounter.step();
+        stepFrequency(1);
+        envelopeCounter.step();
+        sweepCounter.step();
+    }
+
+    private void skipCycles(int cycles) {
+        durationCounter.advance(cycles);
+        stepFrequency(cycles);
+        envelopeCounter.advance(cycles);
+        sweepCounter.advance(cycles);
+    }
+
+    private int cyclesUntilTrigger() {
+        int cycles = Math.min(Math.min(durationCounter.remaining(), envelopeCounter.remaining()), Math.min(sweepCounter.remaining(), FRAME_CYCLES - frameCycle));
+        for (Sound sound : allSounds) {
+            if (sound.enabledWithDAC()) {
+                cycles = Math.min(cycles, sound.cyclesUntilFrequencyTrigger());
+            }
         }
+        return cycles;
+    }
+
+    /**
+     * Nothing in the APU is visible to the CPU except through the registers,
+     * so it only needs to be stepped when the current frame of samples should be handed to the device.
+     */
+    public int cyclesUntilEvent() {
+        return FRAME_CYCLES - frameCycle;
     }
 
     private void stepDuration() {
@@ -67,24 +127,46 @@ public class APU {
         }
     }
 
-    private void stepFrequency() {
+    private void stepFrequency(int cycles) {
         for (Sound sound : allSounds) {
             if (sound.enabledWithDAC()) {
-                sound.stepFrequency();
+                sound.stepFrequency(cycles);
             }
         }
     }
 
-    private void playSample() {
-        if (enabled) {
-            int left = mixSample(leftChannel);
-            int right = mixSample(rightChannel);
-            device.output(left, right);
-        } else {
-            device.output(0, 0);
+    private void updateOutput() {
+        leftChannel.output(enabled ? mixSample(leftChannel) : 0, leftBuffer, frameCycle);
+        rightChannel.output(enabled ? mixSample(rightChannel) : 0, rightBuffer, frameCycle);
+    }
+
+    private void endFrame() {
+        leftBuffer.endFrame(frameCycle);
+        rightBuffer.endFrame(frameCycle);
+        frameCycle = 0;
+
+        int samples = leftBuffer.samplesAvailable();
+        leftBuffer.read(sampleBlock, 0, CHANNELS, samples);
+        rightBuffer.read(sampleBlock, 1, CHANNELS, samples);
+        device.output(sampleBlock, samples * CHANNELS);
+
+        if (device.pacing()) {
+            adjustRate();
         }
     }
 
+    /**
+     * When the device paces the emulator its clock and the emulated clock never match exactly,
+     * so the rate is nudged to produce slightly more samples when the buffer of the device is draining and fewer when it's filling up.
+     * This keeps the latency around the target instead of drifting until the device either runs dry or blocks the emulator for long.
+     */
+    private void adjustRate() {
+        double error = (TARGET_BUFFER_FILL - device.bufferFill()) / TARGET_BUFFER_FILL;
+        double ratio = 1 + Math.max(-1, Math.min(1, error)) * MAX_RATE_ADJUSTMENT;
+        leftBuffer.ratio(ratio);
+        rightBuffer.ratio(ratio);
+    }
+
     private int mixSample(Channel channel) {
         int amp = 0;
         for (Sound sound : allSounds) {
@@ -96,6 +178,35 @@ public class APU {
         return amp;
     }
 
+    /**
+     * The samples not yet handed to the device aren't part of the state, after loading the output continues from the current level.
+     */
+    public void saveState(StateWriter out) {
+        out.writeBoolean(enabled);
+        out.writeInt(durationCounter.remaining());
+        out.writeInt(envelopeCounter.remaining());
+        out.writeInt(sweepCounter.remaining());
+        leftChannel.saveState(out);
+        rightChannel.saveState(out);
+        out.writeMemory(wavePatternRAM, 0xFF30, WAVE_PATTERNS / 2);
+        for (Sound sound : allSounds) {
+            sound.saveState(out);
+        }
+    }
+
+    public void loadState(StateReader in) {
+        enabled = in.readBoolean();
+        durationCounter.remaining(in.readInt());
+        envelopeCounter.remaining(in.readInt());
+        sweepCounter.remaining(in.readInt());
+        leftChannel.loadState(in);
+        rightChannel.loadState(in);
+        in.readMemory(wavePatternRAM, 0xFF30, WAVE_PATTERNS / 2);
+        for (Sound sound : allSounds) {
+            sound.loadState(in);
+        }
+    }
+
     public void reset() {
         sweep(SoundId.SOUND1_SQUARE_WAVE, 0x80);
         length(SoundId.SOUND1_SQUARE_WAVE, 0xBF);
@@ -416,8 +527,12 @@ public class APU {
             envelope.step();
         }
 
-        public void stepFrequency() {
-            frequency.step();
+        public void stepFrequency(int cycles) {
+            frequency.step(cycles);
+        }
+
+        public int cyclesUntilFrequencyTrigger() {
+            return frequency.counter.remaining();
         }
 
         public void reset() {
@@ -428,6 +543,22 @@ public class APU {
             sweep = new Sweep(0, SweepMode.ADDITION, 0);
         }
 
+        public void saveState(StateWriter out) {
+            super.saveState(out);
+            frequency.saveState(out);
+            envelope.saveState(out);
+            out.writeEnum(waveDutyMode);
+            sweep.saveState(out);
+        }
+
+        public void loadState(StateReader in) {
+            super.loadState(in);
+            frequency = Frequency.loadState(in);
+            envelope = Envelope.loadState(in);
+            waveDutyMode = in.readEnum(WaveDutyMode.values());
+            sweep = loadSweep(in);
+        }
+
         private int waveData() {
             int phase = frequency.phase;
             return switch (waveDutyMode) {
@@ -463,8 +594,12 @@ public class APU {
 
         }
 
-        public void stepFrequency() {
-            frequency.step();
+        public void stepFrequency(int cycles) {
+            frequency.step(cycles);
+        }
+
+        public int cyclesUntilFrequencyTrigger() {
+            return frequency.counter.remaining();
         }
 
         public void reset() {
@@ -473,6 +608,18 @@ public class APU {
             frequency = new Frequency(0, 64);
             wavePatternMode = WavePatternMode.MUTE;
         }
+
+        public void saveState(StateWriter out) {
+            super.saveState(out);
+            frequency.saveState(out);
+            out.writeEnum(wavePatternMode);
+        }
+
+        public void loadState(StateReader in) {
+            super.loadState(in);
+            frequency = Frequency.loadState(in);
+            wavePatternMode = in.readEnum(WavePatternMode.values());
+        }
     }
 
     private class NoiseSound extends Sound {
@@ -497,8 +644,12 @@ public class APU {
             envelope.step();
         }
 
-        public void stepFrequency() {
-            polynomial.step();
+        public void stepFrequency(int cycles) {
+            polynomial.step(cycles);
+        }
+
+        public int cyclesUntilFrequencyTrigger() {
+            return polynomial.counter.remaining();
         }
 
         public void reset() {
@@ -506,6 +657,18 @@ public class APU {
             envelope = new Envelope(0, EnvelopeDirection.DECREASE, 0);
             polynomial = new Polynomial(0, PolynomialStep._15_STEPS, 0);
         }
+
+        public void saveState(StateWriter out) {
+            super.saveState(out);
+            envelope.saveState(out);
+            polynomial.saveState(out);
+        }
+
+        public void loadState(StateReader in) {
+            super.loadState(in);
+            envelope = Envelope.loadState(in);
+            polynomial = Polynomial.loadState(in);
+        }
     }
 
     private abstract class Sound {
@@ -522,7 +685,9 @@ public class APU {
 
         public abstract void stepEnvelope();
 
-        public abstract void stepFrequency();
+        public abstract void stepFrequency(int cycles);
+
+        public abstract int cyclesUntilFrequencyTrigger();
 
         protected boolean disabledFor(Terminal terminal) {
             return !enabledWithDAC() || (this.terminal != Terminal.STEREO && this.terminal != terminal);
@@ -541,6 +706,22 @@ public class APU {
             duration.reset();
             terminal = Terminal.NONE;
         }
+
+        public void saveState(StateWriter out) {
+            out.writeBoolean(enabled);
+            out.writeBoolean(dacEnabled);
+            out.writeEnum(terminal);
+            out.writeInt(duration.counter);
+            out.writeBoolean(duration.enabled);
+        }
+
+        public void loadState(StateReader in) {
+            enabled = in.readBoolean();
+            dacEnabled = in.readBoolean();
+            terminal = in.readEnum(Terminal.values());
+            duration.counter = in.readInt();
+            duration.enabled = in.readBoolean();
+        }
     }
 
     private class Duration {
@@ -615,6 +796,14 @@ public class APU {
             }
         }
 
+        public void saveState(StateWriter out) {
+            out.writeInt(time);
+            out.writeEnum(mode);
+            out.writeInt(shifts);
+            out.writeInt(sweepCounter.remaining());
+            out.writeInt(shadowFrequency);
+        }
+
         private void changeFrequency() {
             int change = shadowFrequency >> shifts;
             if (mode == SweepMode.ADDITION) {
@@ -631,19 +820,44 @@ public class APU {
         }
     }
 
+    private Sweep loadSweep(StateReader in) {
+        Sweep sweep = new Sweep(in.readInt(), in.readEnum(SweepMode.values()), in.readInt());
+        sweep.sweepCounter.remaining(in.readInt());
+        sweep.shadowFrequency = in.readInt();
+        return sweep;
+    }
+
     private static class Channel {
         private final Terminal terminal;
         private boolean voiceInEnabled = false;
         private int volume = 0;
+        private int level = 0;
 
         public Channel(Terminal terminal) {
             this.terminal = terminal;
         }
 
+        public void output(int level, BandLimitedBuffer buffer, int cycle) {
+            if (level != this.level) {
+                buffer.addDelta(cycle, level - this.level);
+                this.level = level;
+            }
+        }
+
         public void reset() {
             voiceInEnabled = false;
             volume = 0;
         }
+
+        public void saveState(StateWriter out) {
+            out.writeBoolean(voiceInEnabled);
+            out.writeInt(volume);
+        }
+
+        public void loadState(StateReader in) {
+            voiceInEnabled = in.readBoolean();
+            volume = in.readInt();
+        }
     }
 
     private static class Frequency {
@@ -660,14 +874,28 @@ public class APU {
             this.counter = counter(this::increasePhase, initialCounterValue());
         }
 
-        public void step() {
-            counter.step();
+        public void step(int cycles) {
+            phase = (phase + counter.advance(cycles)) % WAVE_PATTERNS;
         }
 
         private void increasePhase() {
             phase = (phase + 1) % WAVE_PATTERNS;
         }
 
+        public void saveState(StateWriter out) {
+            out.writeInt(value);
+            out.writeInt(multiplier);
+            out.writeInt(counter.remaining());
+            out.writeInt(phase);
+        }
+
+        public static Frequency loadState(StateReader in) {
+            Frequency frequency = new Frequency(in.readInt(), in.readInt());
+            frequency.counter.remaining(in.readInt());
+            frequency.phase = in.readInt();
+            return frequency;
+        }
+
         private int initialCounterValue() {
             int hz = CPU.FREQUENCY / (multiplier * (2048 - value));
             return (CPU.FREQUENCY / hz / WAVE_PATTERNS);
@@ -702,6 +930,21 @@ public class APU {
             return volume;
         }
 
+        public void saveState(StateWriter out) {
+            out.writeInt(initialVolume);
+            out.writeEnum(direction);
+            out.writeInt(steps);
+            out.writeInt(stepCounter.remaining());
+            out.writeInt(volume);
+        }
+
+        public static Envelope loadState(StateReader in) {
+            Envelope envelope = new Envelope(in.readInt(), in.readEnum(EnvelopeDirection.values()), in.readInt());
+            envelope.stepCounter.remaining(in.readInt());
+            envelope.volume = in.readInt();
+            return envelope;
+        }
+
         private void changeVolume() {
             if (direction == EnvelopeDirection.INCREASE && volume < 0xF) {
                 volume++;
@@ -731,8 +974,25 @@ public class APU {
             return (lfsr & 0b0000_0000_0000_0001) == 0;
         }
 
-        public void step() {
-            counter.step();
+        public void saveState(StateWriter out) {
+            out.writeInt(shiftClock);
+            out.writeEnum(step);
+            out.writeInt(dividingRatio);
+            out.writeInt(counter.remaining());
+            out.writeInt(lfsr);
+        }
+
+        public static Polynomial loadState(StateReader in) {
+            Polynomial polynomial = new Polynomial(in.readInt(), in.readEnum(PolynomialStep.values()), in.readInt());
+            polynomial.counter.remaining(in.readInt());
+            polynomial.lfsr = in.readInt();
+            return polynomial;
+        }
+
+        public void step(int cycles) {
+            for (int i = counter.advance(cycles); i > 0; i--) {
+                trigger();
+            }
         }
 
         private void trigger() {
@@ -0,0 +1,100 @@
+package se.omfilm.gameboy.internal;
+
+import java.util.Arrays;
+
+/**
+ * Turns changes of the output level, timestamped in CPU cycles, into samples at any sampling rate.
+ * Each change is added as a band-limited step from a table of windowed sinc kernels, one for each fraction of a sample
+ * the change can be placed at, and the samples are the running sum of the steps.
+ * This avoids the aliasing of picking the level at fixed intervals and works for rates that doesn't divide the CPU frequency.
+ */
+class BandLimitedBuffer {
+    private static final int PHASES = 32;
+    private static final int TAPS = 16;
+    private static final double CUTOFF = 0.45; //Relative to the sampling rate, a bit below the nyquist frequency
+    private static final float[][] KERNELS = kernels();
+
+    private final float[] deltas;
+    private final double nominalSamplesPerCycle;
+    private double samplesPerCycle;
+    private double time = 0;
+    private float level = 0;
+
+    BandLimitedBuffer(int samplingRate, int maxFrameCycles) {
+        this.nominalSamplesPerCycle = (double) samplingRate / CPU.FREQUENCY;
+        this.samplesPerCycle = nominalSamplesPerCycle;
+        this.deltas = new float[(int) Math.ceil(maxFrameCycles * samplesPerCycle * 2) + TAPS + 1];
+    }
+
+    /**
+     * Scales the sampling rate by the ratio, should only be called between frames and be kept close to 1.
+     */
+    void ratio(double ratio) {
+        samplesPerCycle = nominalSamplesPerCycle * ratio;
+    }
+
+    /**
+     * Adds a change of the output level at the given cycle since the frame started.
+     */
+    void addDelta(int cycle, float delta) {
+        double position = time + cycle * samplesPerCycle;
+        int index = (int) position;
+        float[] kernel = KERNELS[(int) ((position - index) * PHASES)];
+        for (int i = 0; i < TAPS; i++) {
+            deltas[index + i] += delta * kernel[i];
+        }
+    }
+
+    /**
+     * Ends the current frame, the samples before it are available to read after this.
+     */
+    void endFrame(int cycles) {
+        time += cycles * samplesPerCycle;
+    }
+
+    /**
+     * The most samples that can be available at once, if every frame is read before the next is ended.
+     */
+    int capacity() {
+        return deltas.length - TAPS - 1;
+    }
+
+    int samplesAvailable() {
+        return (int) time;
+    }
+
+    /**
+     * Reads the available samples into every stride:th position of the output, starting at offset.
+     */
+    void read(byte[] output, int offset, int stride, int count) {
+        float level = this.level;
+        for (int i = 0; i < count; i++) {
+            level += deltas[i];
+            output[offset + (i * stride)] = (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, Math.round(level)));
+        }
+        this.level = level;
+
+        int remaining = (int) time - count + TAPS + 1;
+        System.arraycopy(deltas, count, deltas, 0, remaining);
+        Arrays.fill(deltas, remaining, remaining + count, 0);
+        time -= count;
+    }
+
+    private static float[][] kernels() {
+        float[][] kernels = new float[PHASES][TAPS];
+        for (int phase = 0; phase < PHASES; phase++) {
+            double sum = 0;
+            for (int i = 0; i < TAPS; i++) {
+                double x = i - (TAPS / 2 - 1) - ((double) phase / PHASES);
+                double sinc = x == 0 ? 1 : Math.sin(Math.PI * 2 * CUTOFF * x) / (Math.PI * 2 * CUTOFF * x);
+                double window = 0.42 + 0.5 * Math.cos(Math.PI * x / (TAPS / 2.0)) + 0.08 * Math.cos(2 * Math.PI * x / (TAPS / 2.0)); //Blackman
+                kernels[phase][i] = (float) (sinc * window);
+                sum += kernels[phase][i];
+            }
+            for (int i = 0; i < TAPS; i++) {
+                kernels[phase][i] /= (float) sum;
+            }
+        }
+        return kernels;
+    }
+}
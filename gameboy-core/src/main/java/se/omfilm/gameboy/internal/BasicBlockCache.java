@@ -0,0 +1,140 @@
+package se.omfilm.gameboy.internal;
+
+import se.omfilm.gameboy.internal.memory.Memory;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the code from the cartridge ROM decoded so the CPU doesn't have to fetch and decode every opcode through the MMU.
+ * <p>
+ * The code is decoded into basic blocks, a run of instructions ending with one that can change the program counter (jumps, calls, returns, restarts)
+ * or halts the CPU. A block keeps the opcode for each instruction together with a copy of the bytes for the operands.
+ * Every block is tagged with the ROM bank it was decoded from and is only used as long as that bank is still mapped at the address,
+ * so switching banks in the MBC invalidates the blocks for the switchable area.
+ * <p>
+ * Only code in ROM is cached, running code from RAM (or the boot ROM) always goes through the memory since it can be changed.
+ */
+class BasicBlockCache {
+    private static final int MAX_INSTRUCTIONS = 64;
+    private static final int MAX_LENGTH = 3;
+    private static final int PREFIX = 0xCB;
+
+    private final Block[] blocks = new Block[MMU.MemoryType.ROM_SWITCHABLE_BANKS.to + 1];
+
+    /**
+     * Returns the block with an instruction starting at the address, decoding a new block if needed.
+     * Returns null if the address isn't in ROM and can't be cached.
+     */
+    Block lookup(int address, Memory memory) {
+        int bank = memory.romBank(address);
+        if (bank == Memory.NO_BANK) {
+            return null;
+        }
+
+        Block block = blocks[address];
+        if (block != null && block.bank == bank) {
+            return block;
+        }
+
+        block = decode(address, bank, memory);
+        if (block != null) {
+            for (int i = 0; i < block.opcodes.length; i++) {
+                if (block.opcodes[i] != Block.OPERAND) {
+                    blocks[address + i] = block;
+                }
+            }
+        }
+        return block;
+    }
+
+    private static Block decode(int start, int bank, Memory memory) {
+        int regionEnd = start < MMU.MemoryType.ROM_SWITCHABLE_BANKS.from ? MMU.MemoryType.ROM_BANK0.to : MMU.MemoryType.ROM_SWITCHABLE_BANKS.to;
+        int[] opcodes = new int[MAX_INSTRUCTIONS * MAX_LENGTH];
+        int[] bytes = new int[MAX_INSTRUCTIONS * MAX_LENGTH];
+        int length = 0;
+
+        for (int instructions = 0; instructions < MAX_INSTRUCTIONS; instructions++) {
+            int address = start + length;
+            int opcode = memory.readByte(address);
+            int size = opcode == PREFIX ? 2 : 1 + operandLength(opcode);
+            if (address + size - 1 > regionEnd) {
+                break;
+            }
+
+            for (int i = 0; i < size; i++) {
+                bytes[length + i] = memory.readByte(address + i);
+                opcodes[length + i] = Block.OPERAND;
+            }
+            opcodes[length] = opcode == PREFIX ? (PREFIX << 8) | bytes[length + 1] : opcode;
+            length += size;
+
+            if (endsBlock(opcode)) {
+                break;
+            }
+        }
+
+        if (length == 0) {
+            return null;
+        }
+        return new Block(start, bank, Arrays.copyOf(opcodes, length), Arrays.copyOf(bytes, length));
+    }
+
+    private static int operandLength(int opcode) {
+        return switch (opcode) {
+            case 0x06, 0x0E, 0x16, 0x1E, 0x26, 0x2E, 0x36, 0x3E,
+                    0x18, 0x20, 0x28, 0x30, 0x38,
+                    0xC6, 0xCE, 0xD6, 0xDE, 0xE6, 0xEE, 0xF6, 0xFE,
+                    0xE0, 0xF0, 0xE8, 0xF8 -> 1;
+            case 0x01, 0x11, 0x21, 0x31, 0x08, 0xEA, 0xFA,
+                    0xC2, 0xC3, 0xCA, 0xD2, 0xDA,
+                    0xC4, 0xCC, 0xCD, 0xD4, 0xDC -> 2;
+            default -> 0;
+        };
+    }
+
+    private static boolean endsBlock(int opcode) {
+        return switch (opcode) {
+            case 0x10, 0x76,
+                    0x18, 0x20, 0x28, 0x30, 0x38,
+                    0xC2, 0xC3, 0xCA, 0xD2, 0xDA, 0xE9,
+                    0xC4, 0xCC, 0xCD, 0xD4, 0xDC,
+                    0xC0, 0xC8, 0xC9, 0xD0, 0xD8, 0xD9,
+                    0xC7, 0xCF, 0xD7, 0xDF, 0xE7, 0xEF, 0xF7, 0xFF -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * A decoded run of instructions between start (inclusive) and end (exclusive).
+     * The opcodes-array has the opcode (0xCB00 - 0xCBFF for the prefixed ones) at the offset where each instruction starts, OPERAND otherwise.
+     */
+    static class Block {
+        private static final int OPERAND = -1;
+
+        private final int start;
+        private final int end;
+        private final int bank;
+        private final int[] opcodes;
+        private final int[] bytes;
+
+        private Block(int start, int bank, int[] opcodes, int[] bytes) {
+            this.start = start;
+            this.end = start + bytes.length;
+            this.bank = bank;
+            this.opcodes = opcodes;
+            this.bytes = bytes;
+        }
+
+        int opcode(int address) {
+            return opcodes[address - start];
+        }
+
+        boolean contains(int address) {
+            return address >= start && address < end;
+        }
+
+        int readByte(int address) {
+            return bytes[address - start];
+        }
+    }
+}
@@ -7,23 +7,35 @@ import se.omfilm.gameboy.internal.instructions.InvalidInstruction;
 import se.omfilm.gameboy.internal.memory.Memory;
 import se.omfilm.gameboy.util.DebugPrinter;
 
-import java.util.EnumMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class CPU {
     private static final Logger log = LoggerFactory.getLogger(CPU.class);
+    private static final boolean VERIFY_REGISTERS = Boolean.getBoolean("gameboy.verifyRegisters"); //Enabled by the tests, too costly to check every write otherwise
 
     public static final int FREQUENCY = 4 * 1024 * 1024;
 
-    private final InstructionProvider instructionProvider = new InstructionProvider();
-    private final Flags flags = new FlagsImpl();
+    private final Interpreter interpreter;
+    private final BasicBlockCache blockCache = new BasicBlockCache();
+    private final FlagsImpl flags = new FlagsImpl();
     private final InterruptsImpl interrupts = new InterruptsImpl();
-    private final ProgramCounter programCounter = new ProgramCounterImpl();
-    private final StackPointer stackPointer = new StackPointerImpl();
-    private final Registers registers = new RegistersImpl();
+    private final ProgramCounterImpl programCounter = new ProgramCounterImpl();
+    private final StackPointerImpl stackPointer = new StackPointerImpl();
+    private final RegistersImpl registers = new RegistersImpl();
 
     private State state = new NormalState();
 
+    public CPU() {
+        this(Engine.INSTRUCTIONS);
+    }
+
+    public CPU(Engine engine) {
+        this.interpreter = switch (engine) {
+            case INSTRUCTIONS -> new InstructionProvider();
+            case SWITCH -> new SwitchInterpreter();
+        };
+    }
+
     @SuppressWarnings("unused")
     private int stop(Memory memory, Registers registers, Flags flags, ProgramCounter programCounter, StackPointer stackPointer) {
         state = new StoppedState();
@@ -47,6 +59,43 @@ public class CPU {
         return state.step(memory) + interrupts.step(memory);
     }
 
+    /**
+     * Halted without any interrupt that can be serviced or is about to be enabled, then every step only takes 4 cycles
+     * and nothing changes until some other component requests an interrupt.
+     */
+    public boolean isWaitingForInterrupt() {
+        return state instanceof HaltedState && interrupts.enableDelay == 0 && (interrupts.requestedInterrupts & interrupts.enabledInterrupts) == 0;
+    }
+
+    /**
+     * Running normally and not in the middle of an instruction or about to enable the interrupts, so the next step is decided only
+     * by the registers, the memory and the interrupts.
+     */
+    public boolean isBetweenInstructions() {
+        return state instanceof NormalState normal && normal.previous == NormalState.NONE && interrupts.enableDelay == 0;
+    }
+
+    /**
+     * Reads the opcode at the program counter, from the decoded blocks if the code is in ROM.
+     * The opcodes prefixed with CB are fetched as a single value between 0xCB00 - 0xCBFF, the same as in InstructionType.
+     */
+    private int fetch(Memory memory) {
+        int address = programCounter.value;
+        BasicBlockCache.Block block = blockCache.lookup(address, memory);
+        programCounter.block = block;
+        if (block != null) {
+            int opcode = block.opcode(address);
+            programCounter.write(address + (opcode > 0xFF ? 2 : 1));
+            return opcode;
+        }
+
+        int opcode = programCounter.byteOperand(memory);
+        if (opcode == InstructionType.CB.opcode()) {
+            return (opcode << 8) | programCounter.byteOperand(memory);
+        }
+        return opcode;
+    }
+
     public void reset() {
         programCounter.write(0x100);
         stackPointer.write(0xFFFE);
@@ -60,6 +109,48 @@ public class CPU {
         }
     }
 
+    public void saveState(StateWriter out) {
+        out.writeInt(registers.readAF());
+        out.writeInt(registers.readBC());
+        out.writeInt(registers.readDE());
+        out.writeInt(registers.readHL());
+        out.writeInt(programCounter.read());
+        out.writeInt(stackPointer.read());
+        out.writeBoolean(interrupts.interruptMasterEnable);
+        out.writeInt(interrupts.enableDelay);
+        out.writeInt(interrupts.enabledInterrupts);
+        out.writeInt(interrupts.requestedInterrupts);
+        out.writeEnum(StateType.of(state));
+        out.writeInt(state instanceof NormalState normal ? normal.previous : NormalState.NONE);
+    }
+
+    /**
+     * The block of the program counter is dropped, so the operands of a pending instruction are read from memory until the next fetch.
+     */
+    public void loadState(StateReader in) {
+        registers.writeAF(in.readInt());
+        registers.writeBC(in.readInt());
+        registers.writeDE(in.readInt());
+        registers.writeHL(in.readInt());
+        programCounter.write(in.readInt());
+        programCounter.block = null;
+        stackPointer.write(in.readInt());
+        interrupts.interruptMasterEnable = in.readBoolean();
+        interrupts.enableDelay = in.readInt();
+        interrupts.enabledInterrupts = in.readInt();
+        interrupts.requestedInterrupts = in.readInt();
+        state = switch (in.readEnum(StateType.values())) {
+            case NORMAL -> new NormalState();
+            case STOPPED -> new StoppedState();
+            case HALTED -> new HaltedState();
+            case HALT_BUG -> new HaltBugState();
+        };
+        int previous = in.readInt();
+        if (state instanceof NormalState normal) {
+            normal.previous = previous;
+        }
+    }
+
     public Interrupts interrupts() {
         return this.interrupts;
     }
@@ -80,8 +171,12 @@ public class CPU {
         return flags;
     }
 
+    /**
+     * The operands are read from the block the current instruction was fetched from, if there is one.
+     */
     private static class ProgramCounterImpl implements ProgramCounter {
         private int value = 0;
+        private BasicBlockCache.Block block = null;
 
         public int read() {
             return value;
@@ -90,6 +185,24 @@ public class CPU {
         public void write(int data) {
             this.value = data & 0xFFFF;
         }
+
+        public int byteOperand(Memory memory) {
+            int pc = value;
+            if (block == null || !block.contains(pc)) {
+                return ProgramCounter.super.byteOperand(memory);
+            }
+            write(pc + 1);
+            return block.readByte(pc);
+        }
+
+        public int wordOperand(Memory memory) {
+            int pc = value;
+            if (block == null || !block.contains(pc + 1)) {
+                return ProgramCounter.super.wordOperand(memory);
+            }
+            write(pc + 2);
+            return block.readByte(pc) | (block.readByte(pc + 1) << 8);
+        }
     }
 
     private static class StackPointerImpl implements StackPointer {
@@ -104,19 +217,79 @@ public class CPU {
         }
     }
 
+    /**
+     * Most instructions sets the flags but few reads them, so the arithmetic instructions only keeps their operands and result.
+     * The flags are calculated from those when read, either here or from the F register.
+     */
     private class FlagsImpl implements Flags {
+        private static final int ZERO = Flag.ZERO.mask();
+        private static final int SUBTRACT = Flag.SUBTRACT.mask();
+        private static final int HALF_CARRY = Flag.HALF_CARRY.mask();
+        private static final int CARRY = Flag.CARRY.mask();
+
+        private int pending = 0; //The flags in F that should be calculated from the last operation
+        private int subtract = 0;
+        private int a = 0;
+        private int n = 0;
+        private int result = 0;
+
         public boolean isSet(Flag flag) {
             return (registers.readF() & flag.mask()) != 0;
         }
 
         public void set(Flag flag, boolean value) {
-            int f = registers.readF();
+            pending = pending & ~flag.mask();
             if (value) {
-                f = f | flag.mask();
+                registers.f = registers.f | flag.mask();
             } else {
-                f = f & (~flag.mask());
+                registers.f = registers.f & ~flag.mask();
+            }
+        }
+
+        public void setFromAddition(int a, int n, int result) {
+            setPending(ZERO | SUBTRACT | HALF_CARRY | CARRY, 0, a, n, result);
+        }
+
+        public void setFromSubtraction(int a, int n, int result) {
+            setPending(ZERO | SUBTRACT | HALF_CARRY | CARRY, SUBTRACT, a, n, result);
+        }
+
+        public void setFromIncrement(int value) {
+            setPending(ZERO | SUBTRACT | HALF_CARRY, 0, value, 1, value + 1);
+        }
+
+        public void setFromDecrement(int value) {
+            setPending(ZERO | SUBTRACT | HALF_CARRY, SUBTRACT, value, 1, value - 1);
+        }
+
+        private void setPending(int flags, int subtract, int a, int n, int result) {
+            if ((pending & ~flags) != 0) { //Flags from the previous operation would be lost otherwise
+                calculate();
+            }
+            this.pending = flags;
+            this.subtract = subtract;
+            this.a = a;
+            this.n = n;
+            this.result = result;
+        }
+
+        /**
+         * The half carry and carry is the carry into bit 4 and 8, which works the same for subtraction since the borrow is the inverted carry.
+         */
+        private void calculate() {
+            if (pending == 0) {
+                return;
             }
-            registers.writeF(f);
+            int f = ((result & 0xFF) == 0 ? ZERO : 0) |
+                    subtract |
+                    (((a ^ n ^ result) & 0x10) != 0 ? HALF_CARRY : 0) |
+                    ((result & 0x100) != 0 ? CARRY : 0);
+            registers.f = (registers.f & ~pending) | (f & pending);
+            pending = 0;
+        }
+
+        private void discard() {
+            pending = 0;
         }
 
         public void setInterruptsDisabled(boolean disabled) {
@@ -128,7 +301,11 @@ public class CPU {
         }
     }
 
-    private static class RegistersImpl implements Registers {
+    /**
+     * The registers are kept as separate fields so the switch engine can use them directly, the pairs are composed from them here without going through the single register methods.
+     * The written values are only checked to be in range if verifying is enabled with the system property gameboy.verifyRegisters.
+     */
+    private class RegistersImpl implements Registers {
         private int a = 0;
         private int f = 0;
         private int b = 0;
@@ -143,15 +320,19 @@ public class CPU {
         }
 
         public int readF() {
+            flags.calculate();
             return this.f;
         }
 
         public void writeA(int val) {
-            verify(val);
+            if (VERIFY_REGISTERS) {
+                verify(val);
+            }
             this.a = val;
         }
 
         public void writeF(int val) {
+            flags.discard();
             this.f = val & 0xF0;
         }
 
@@ -164,12 +345,16 @@ public class CPU {
         }
 
         public void writeB(int val) {
-            verify(val);
+            if (VERIFY_REGISTERS) {
+                verify(val);
+            }
             this.b = val;
         }
 
         public void writeC(int val) {
-            verify(val);
+            if (VERIFY_REGISTERS) {
+                verify(val);
+            }
             this.c = val;
         }
 
@@ -182,12 +367,16 @@ public class CPU {
         }
 
         public void writeD(int val) {
-            verify(val);
+            if (VERIFY_REGISTERS) {
+                verify(val);
+            }
             this.d = val;
         }
 
         public void writeE(int val) {
-            verify(val);
+            if (VERIFY_REGISTERS) {
+                verify(val);
+            }
             this.e = val;
         }
 
@@ -200,23 +389,84 @@ public class CPU {
         }
 
         public void writeH(int val) {
-            verify(val);
+            if (VERIFY_REGISTERS) {
+                verify(val);
+            }
             this.h = val;
         }
 
         public void writeL(int val) {
-            verify(val);
+            if (VERIFY_REGISTERS) {
+                verify(val);
+            }
             this.l = val;
         }
 
+        public int readAF() {
+            return (this.a << 8) | readF();
+        }
+
+        public void writeAF(int val) {
+            if (VERIFY_REGISTERS) {
+                verifyWord(val);
+            }
+            flags.discard();
+            this.a = val >> 8;
+            this.f = val & 0xF0;
+        }
+
+        public int readBC() {
+            return (this.b << 8) | this.c;
+        }
+
+        public void writeBC(int val) {
+            if (VERIFY_REGISTERS) {
+                verifyWord(val);
+            }
+            this.b = val >> 8;
+            this.c = val & 0xFF;
+        }
+
+        public int readDE() {
+            return (this.d << 8) | this.e;
+        }
+
+        public void writeDE(int val) {
+            if (VERIFY_REGISTERS) {
+                verifyWord(val);
+            }
+            this.d = val >> 8;
+            this.e = val & 0xFF;
+        }
+
+        public int readHL() {
+            return (this.h << 8) | this.l;
+        }
+
+        public void writeHL(int val) {
+            if (VERIFY_REGISTERS) {
+                verifyWord(val);
+            }
+            this.h = val >> 8;
+            this.l = val & 0xFF;
+        }
+
         private void verify(int val) {
             if (val < 0 || val > 0xFF) {
                 throw new IllegalStateException("Can't write value " + DebugPrinter.hex(val, 4) + ", not in range " + DebugPrinter.hex(0, 2) + "-" + DebugPrinter.hex(0xFF, 2));
             }
         }
+
+        private void verifyWord(int val) {
+            if (val < 0 || val > 0xFFFF) {
+                throw new IllegalStateException("Can't write value " + DebugPrinter.hex(val, 8) + ", not in range " + DebugPrinter.hex(0, 4) + "-" + DebugPrinter.hex(0xFFFF, 4));
+            }
+        }
     }
 
     private class InterruptsImpl implements Interrupts {
+        private static final int ALL_INTERRUPTS = 0b0001_1111;
+
         private boolean interruptMasterEnable = false;
         private int enableDelay = 0;
         private int enabledInterrupts = 0;
@@ -262,6 +512,22 @@ public class CPU {
             return (requestedInterrupts & interrupt.mask()) != 0;
         }
 
+        public int enabled() {
+            return enabledInterrupts;
+        }
+
+        public void enable(int mask) {
+            enabledInterrupts = mask & ALL_INTERRUPTS;
+        }
+
+        public int requested() {
+            return requestedInterrupts;
+        }
+
+        public void request(int mask) {
+            requestedInterrupts = mask & ALL_INTERRUPTS;
+        }
+
         private void setInterruptsDisabled(boolean disabled) {
             if (!disabled) {
                 enableDelay = 2;
@@ -279,11 +545,39 @@ public class CPU {
         }
     }
 
-    private class InstructionProvider {
-        private final Map<InstructionType, Instruction> instructionMap = new EnumMap<>(InstructionType.class);
-        private final Instruction invalidInstruction = new InvalidInstruction();
+    /**
+     * The available ways for the CPU to interpret the instructions.
+     * INSTRUCTIONS executes each opcode through its Instruction-class, which is easy to follow and what the debugger is built around.
+     * SWITCH executes the opcodes in one big switch working directly on the register fields, which avoids all the indirection.
+     */
+    public enum Engine {
+        INSTRUCTIONS,
+        SWITCH
+    }
+
+    /**
+     * Executes the opcodes fetched by the NormalState.
+     */
+    private interface Interpreter {
+        int paddingCycles(int opcode);
+
+        int execute(int opcode, Memory memory);
+    }
+
+    /**
+     * Resolves the instruction for the opcode at the program counter.
+     * All instructions are put into two flat tables indexed by opcode, one for the normal instructions and one for the
+     * instructions prefixed with CB, so decoding is just one or two array lookups.
+     */
+    private class InstructionProvider implements Interpreter {
+        private static final int TABLE_SIZE = 0xFF + 1;
+
+        private final Instruction[] instructions = new Instruction[TABLE_SIZE];
+        private final Instruction[] prefixedInstructions = new Instruction[TABLE_SIZE];
 
         public InstructionProvider() {
+            Arrays.fill(instructions, new InvalidInstruction());
+            Arrays.fill(prefixedInstructions, new InvalidInstruction());
             for (InstructionType type : InstructionType.values()) {
                 add(type, type.instruction().get());
             }
@@ -291,24 +585,598 @@ public class CPU {
             add(InstructionType.HALT, CPU.this::halt);
         }
 
-        public Instruction read(ProgramCounter programCounter, Memory memory) {
-            return resolveImpl(resolveType(programCounter, memory));
+        public int paddingCycles(int opcode) {
+            return read(opcode).paddingCycles();
+        }
+
+        public int execute(int opcode, Memory memory) {
+            return read(opcode).execute(memory, registers, flags, programCounter, stackPointer);
+        }
+
+        private Instruction read(int opcode) {
+            if (opcode > 0xFF) {
+                return prefixedInstructions[opcode & 0xFF];
+            }
+            return instructions[opcode];
         }
 
         public void add(InstructionType type, Instruction impl) {
-            instructionMap.put(type, impl);
+            int opcode = type.opcode();
+            if ((opcode >> 8) == InstructionType.CB.opcode()) {
+                prefixedInstructions[opcode & 0xFF] = impl;
+            } else {
+                instructions[opcode] = impl;
+            }
         }
+    }
 
-        protected InstructionType resolveType(ProgramCounter programCounter, Memory memory) {
-            InstructionType instructionType = InstructionType.fromOpCode(programCounter.byteOperand(memory));
-            if (instructionType == InstructionType.CB) {
-                instructionType = InstructionType.fromOpCode(instructionType.opcode(), programCounter.byteOperand(memory));
+    /**
+     * Executes the opcodes in a single switch instead of going through the Instruction-classes.
+     * The registers are read and written directly from their fields, so everything has to be masked to the correct range here.
+     * The behaviour (including the timing) should be exactly the same as for the corresponding Instruction-class.
+     */
+    private class SwitchInterpreter implements Interpreter {
+        private static final int ZERO = Flags.Flag.ZERO.mask();
+        private static final int SUBTRACT = Flags.Flag.SUBTRACT.mask();
+        private static final int HALF_CARRY = Flags.Flag.HALF_CARRY.mask();
+        private static final int CARRY = Flags.Flag.CARRY.mask();
+
+        public int paddingCycles(int opcode) {
+            return switch (opcode) {
+                case 0x02, 0x0A, 0x12, 0x1A, 0x22, 0x2A, 0x32, 0x3A,
+                        0x46, 0x4E, 0x56, 0x5E, 0x66, 0x6E, 0x70, 0x71, 0x72, 0x73, 0x74, 0x75, 0x77, 0x7E,
+                        0x86, 0x8E, 0x96, 0x9E, 0xA6, 0xAE, 0xB6, 0xBE, 0xE2, 0xF2 -> 4;
+                case 0x36, 0xE0, 0xF0,
+                        0xCB46, 0xCB4E, 0xCB56, 0xCB5E, 0xCB66, 0xCB6E, 0xCB76, 0xCB7E -> 8;
+                case 0xEA, 0xFA -> 12;
+                case 0x08 -> 16;
+                default -> 0;
+            };
+        }
+
+        public int execute(int opcode, Memory memory) {
+            RegistersImpl r = registers;
+            switch (opcode) {
+                case 0x00: return 4;
+                case 0x01: writeBC(wordOperand(memory)); return 12;
+                case 0x02: memory.writeByte(readBC(), r.a); return 8;
+                case 0x03: writeBC((readBC() + 1) & 0xFFFF); return 8;
+                case 0x04: r.b = increment(r.b); return 4;
+                case 0x05: r.b = decrement(r.b); return 4;
+                case 0x06: r.b = byteOperand(memory); return 8;
+                case 0x07: r.a = rotateLeft(r.a, r.a >> 7, false); return 4;
+                case 0x08: memory.writeWord(wordOperand(memory), stackPointer.value); return 20;
+                case 0x09: addToHL(readBC()); return 8;
+                case 0x0A: r.a = memory.readByte(readBC()); return 8;
+                case 0x0B: writeBC((readBC() - 1) & 0xFFFF); return 8;
+                case 0x0C: r.c = increment(r.c); return 4;
+                case 0x0D: r.c = decrement(r.c); return 4;
+                case 0x0E: r.c = byteOperand(memory); return 8;
+                case 0x0F: r.a = rotateRight(r.a, (r.a & 1) << 7, false); return 4;
+
+                case 0x10: return stop(memory, registers, flags, programCounter, stackPointer);
+                case 0x11: writeDE(wordOperand(memory)); return 12;
+                case 0x12: memory.writeByte(readDE(), r.a); return 8;
+                case 0x13: writeDE((readDE() + 1) & 0xFFFF); return 8;
+                case 0x14: r.d = increment(r.d); return 4;
+                case 0x15: r.d = decrement(r.d); return 4;
+                case 0x16: r.d = byteOperand(memory); return 8;
+                case 0x17: r.a = rotateLeft(r.a, carry(), false); return 4;
+                case 0x18: return jumpRelative(memory, true);
+                case 0x19: addToHL(readDE()); return 8;
+                case 0x1A: r.a = memory.readByte(readDE()); return 8;
+                case 0x1B: writeDE((readDE() - 1) & 0xFFFF); return 8;
+                case 0x1C: r.e = increment(r.e); return 4;
+                case 0x1D: r.e = decrement(r.e); return 4;
+                case 0x1E: r.e = byteOperand(memory); return 8;
+                case 0x1F: r.a = rotateRight(r.a, carry() << 7, false); return 4;
+
+                case 0x20: return jumpRelative(memory, (r.f & ZERO) == 0);
+                case 0x21: writeHL(wordOperand(memory)); return 12;
+                case 0x22: { int hl = readHL(); memory.writeByte(hl, r.a); writeHL((hl + 1) & 0xFFFF); return 8; }
+                case 0x23: writeHL((readHL() + 1) & 0xFFFF); return 8;
+                case 0x24: r.h = increment(r.h); return 4;
+                case 0x25: r.h = decrement(r.h); return 4;
+                case 0x26: r.h = byteOperand(memory); return 8;
+                case 0x27: decimalAdjustA(); return 4;
+                case 0x28: return jumpRelative(memory, (r.f & ZERO) != 0);
+                case 0x29: addToHL(readHL()); return 8;
+                case 0x2A: { int hl = readHL(); r.a = memory.readByte(hl); writeHL((hl + 1) & 0xFFFF); return 8; }
+                case 0x2B: writeHL((readHL() - 1) & 0xFFFF); return 8;
+                case 0x2C: r.l = increment(r.l); return 4;
+                case 0x2D: r.l = decrement(r.l); return 4;
+                case 0x2E: r.l = byteOperand(memory); return 8;
+                case 0x2F: r.a = ~r.a & 0xFF; r.f = r.f | SUBTRACT | HALF_CARRY; return 4;
+
+                case 0x30: return jumpRelative(memory, (r.f & CARRY) == 0);
+                case 0x31: stackPointer.value = wordOperand(memory); return 12;
+                case 0x32: { int hl = readHL(); memory.writeByte(hl, r.a); writeHL((hl - 1) & 0xFFFF); return 8; }
+                case 0x33: stackPointer.value = (stackPointer.value + 1) & 0xFFFF; return 8;
+                case 0x34: { int hl = readHL(); memory.writeByte(hl, increment(memory.readByte(hl))); return 12; }
+                case 0x35: { int hl = readHL(); memory.writeByte(hl, decrement(memory.readByte(hl))); return 12; }
+                case 0x36: memory.writeByte(readHL(), byteOperand(memory)); return 12;
+                case 0x37: r.f = (r.f & ZERO) | CARRY; return 4;
+                case 0x38: return jumpRelative(memory, (r.f & CARRY) != 0);
+                case 0x39: addToHL(stackPointer.value); return 8;
+                case 0x3A: { int hl = readHL(); r.a = memory.readByte(hl); writeHL((hl - 1) & 0xFFFF); return 8; }
+                case 0x3B: stackPointer.value = (stackPointer.value - 1) & 0xFFFF; return 8;
+                case 0x3C: r.a = increment(r.a); return 4;
+                case 0x3D: r.a = decrement(r.a); return 4;
+                case 0x3E: r.a = byteOperand(memory); return 8;
+                case 0x3F: r.f = (r.f & ZERO) | (~r.f & CARRY); return 4;
+
+                case 0x40: return 4;
+                case 0x41: r.b = r.c; return 4;
+                case 0x42: r.b = r.d; return 4;
+                case 0x43: r.b = r.e; return 4;
+                case 0x44: r.b = r.h; return 4;
+                case 0x45: r.b = r.l; return 4;
+                case 0x46: r.b = memory.readByte(readHL()); return 8;
+                case 0x47: r.b = r.a; return 4;
+                case 0x48: r.c = r.b; return 4;
+                case 0x49: return 4;
+                case 0x4A: r.c = r.d; return 4;
+                case 0x4B: r.c = r.e; return 4;
+                case 0x4C: r.c = r.h; return 4;
+                case 0x4D: r.c = r.l; return 4;
+                case 0x4E: r.c = memory.readByte(readHL()); return 8;
+                case 0x4F: r.c = r.a; return 4;
+
+                case 0x50: r.d = r.b; return 4;
+                case 0x51: r.d = r.c; return 4;
+                case 0x52: return 4;
+                case 0x53: r.d = r.e; return 4;
+                case 0x54: r.d = r.h; return 4;
+                case 0x55: r.d = r.l; return 4;
+                case 0x56: r.d = memory.readByte(readHL()); return 8;
+                case 0x57: r.d = r.a; return 4;
+                case 0x58: r.e = r.b; return 4;
+                case 0x59: r.e = r.c; return 4;
+                case 0x5A: r.e = r.d; return 4;
+                case 0x5B: return 4;
+                case 0x5C: r.e = r.h; return 4;
+                case 0x5D: r.e = r.l; return 4;
+                case 0x5E: r.e = memory.readByte(readHL()); return 8;
+                case 0x5F: r.e = r.a; return 4;
+
+                case 0x60: r.h = r.b; return 4;
+                case 0x61: r.h = r.c; return 4;
+                case 0x62: r.h = r.d; return 4;
+                case 0x63: r.h = r.e; return 4;
+                case 0x64: return 4;
+                case 0x65: r.h = r.l; return 4;
+                case 0x66: r.h = memory.readByte(readHL()); return 8;
+                case 0x67: r.h = r.a; return 4;
+                case 0x68: r.l = r.b; return 4;
+                case 0x69: r.l = r.c; return 4;
+                case 0x6A: r.l = r.d; return 4;
+                case 0x6B: r.l = r.e; return 4;
+                case 0x6C: r.l = r.h; return 4;
+                case 0x6D: return 4;
+                case 0x6E: r.l = memory.readByte(readHL()); return 8;
+                case 0x6F: r.l = r.a; return 4;
+
+                case 0x70: memory.writeByte(readHL(), r.b); return 8;
+                case 0x71: memory.writeByte(readHL(), r.c); return 8;
+                case 0x72: memory.writeByte(readHL(), r.d); return 8;
+                case 0x73: memory.writeByte(readHL(), r.e); return 8;
+                case 0x74: memory.writeByte(readHL(), r.h); return 8;
+                case 0x75: memory.writeByte(readHL(), r.l); return 8;
+                case 0x76: return halt(memory, registers, flags, programCounter, stackPointer);
+                case 0x77: memory.writeByte(readHL(), r.a); return 8;
+                case 0x78: r.a = r.b; return 4;
+                case 0x79: r.a = r.c; return 4;
+                case 0x7A: r.a = r.d; return 4;
+                case 0x7B: r.a = r.e; return 4;
+                case 0x7C: r.a = r.h; return 4;
+                case 0x7D: r.a = r.l; return 4;
+                case 0x7E: r.a = memory.readByte(readHL()); return 8;
+                case 0x7F: return 4;
+
+                case 0x80: add(r.b, 0); return 4;
+                case 0x81: add(r.c, 0); return 4;
+                case 0x82: add(r.d, 0); return 4;
+                case 0x83: add(r.e, 0); return 4;
+                case 0x84: add(r.h, 0); return 4;
+                case 0x85: add(r.l, 0); return 4;
+                case 0x86: add(memory.readByte(readHL()), 0); return 8;
+                case 0x87: add(r.a, 0); return 4;
+                case 0x88: add(r.b, carry()); return 4;
+                case 0x89: add(r.c, carry()); return 4;
+                case 0x8A: add(r.d, carry()); return 4;
+                case 0x8B: add(r.e, carry()); return 4;
+                case 0x8C: add(r.h, carry()); return 4;
+                case 0x8D: add(r.l, carry()); return 4;
+                case 0x8E: add(memory.readByte(readHL()), carry()); return 8;
+                case 0x8F: add(r.a, carry()); return 4;
+
+                case 0x90: subtract(r.b, 0); return 4;
+                case 0x91: subtract(r.c, 0); return 4;
+                case 0x92: subtract(r.d, 0); return 4;
+                case 0x93: subtract(r.e, 0); return 4;
+                case 0x94: subtract(r.h, 0); return 4;
+                case 0x95: subtract(r.l, 0); return 4;
+                case 0x96: subtract(memory.readByte(readHL()), 0); return 8;
+                case 0x97: subtract(r.a, 0); return 4;
+                case 0x98: subtract(r.b, carry()); return 4;
+                case 0x99: subtract(r.c, carry()); return 4;
+                case 0x9A: subtract(r.d, carry()); return 4;
+                case 0x9B: subtract(r.e, carry()); return 4;
+                case 0x9C: subtract(r.h, carry()); return 4;
+                case 0x9D: subtract(r.l, carry()); return 4;
+                case 0x9E: subtract(memory.readByte(readHL()), carry()); return 8;
+                case 0x9F: subtract(r.a, carry()); return 4;
+
+                case 0xA0: and(r.b); return 4;
+                case 0xA1: and(r.c); return 4;
+                case 0xA2: and(r.d); return 4;
+                case 0xA3: and(r.e); return 4;
+                case 0xA4: and(r.h); return 4;
+                case 0xA5: and(r.l); return 4;
+                case 0xA6: and(memory.readByte(readHL())); return 8;
+                case 0xA7: and(r.a); return 4;
+                case 0xA8: xor(r.b); return 4;
+                case 0xA9: xor(r.c); return 4;
+                case 0xAA: xor(r.d); return 4;
+                case 0xAB: xor(r.e); return 4;
+                case 0xAC: xor(r.h); return 4;
+                case 0xAD: xor(r.l); return 4;
+                case 0xAE: xor(memory.readByte(readHL())); return 8;
+                case 0xAF: xor(r.a); return 4;
+
+                case 0xB0: or(r.b); return 4;
+                case 0xB1: or(r.c); return 4;
+                case 0xB2: or(r.d); return 4;
+                case 0xB3: or(r.e); return 4;
+                case 0xB4: or(r.h); return 4;
+                case 0xB5: or(r.l); return 4;
+                case 0xB6: or(memory.readByte(readHL())); return 8;
+                case 0xB7: or(r.a); return 4;
+                case 0xB8: compare(r.b); return 4;
+                case 0xB9: compare(r.c); return 4;
+                case 0xBA: compare(r.d); return 4;
+                case 0xBB: compare(r.e); return 4;
+                case 0xBC: compare(r.h); return 4;
+                case 0xBD: compare(r.l); return 4;
+                case 0xBE: compare(memory.readByte(readHL())); return 8;
+                case 0xBF: compare(r.a); return 4;
+
+                case 0xC0: return returnIf(memory, (r.f & ZERO) == 0);
+                case 0xC1: writeBC(pop(memory)); return 12;
+                case 0xC2: return jump(memory, (r.f & ZERO) == 0);
+                case 0xC3: return jump(memory, true);
+                case 0xC4: return call(memory, (r.f & ZERO) == 0);
+                case 0xC5: push(memory, readBC()); return 16;
+                case 0xC6: add(byteOperand(memory), 0); return 8;
+                case 0xC7: return restart(memory, 0x00);
+                case 0xC8: return returnIf(memory, (r.f & ZERO) != 0);
+                case 0xC9: programCounter.value = pop(memory); return 16;
+                case 0xCA: return jump(memory, (r.f & ZERO) != 0);
+                case 0xCC: return call(memory, (r.f & ZERO) != 0);
+                case 0xCD: return call(memory, true);
+                case 0xCE: add(byteOperand(memory), carry()); return 8;
+                case 0xCF: return restart(memory, 0x08);
+
+                case 0xD0: return returnIf(memory, (r.f & CARRY) == 0);
+                case 0xD1: writeDE(pop(memory)); return 12;
+                case 0xD2: return jump(memory, (r.f & CARRY) == 0);
+                case 0xD4: return call(memory, (r.f & CARRY) == 0);
+                case 0xD5: push(memory, readDE()); return 16;
+                case 0xD6: subtract(byteOperand(memory), 0); return 8;
+                case 0xD7: return restart(memory, 0x10);
+                case 0xD8: return returnIf(memory, (r.f & CARRY) != 0);
+                case 0xD9: programCounter.value = pop(memory); interrupts.setInterruptsDisabled(false); return 16;
+                case 0xDA: return jump(memory, (r.f & CARRY) != 0);
+                case 0xDC: return call(memory, (r.f & CARRY) != 0);
+                case 0xDE: subtract(byteOperand(memory), carry()); return 8;
+                case 0xDF: return restart(memory, 0x18);
+
+                case 0xE0: memory.writeByte(MMU.MemoryType.IO_REGISTERS.from + byteOperand(memory), r.a); return 12;
+                case 0xE1: writeHL(pop(memory)); return 12;
+                case 0xE2: memory.writeByte(MMU.MemoryType.IO_REGISTERS.from + r.c, r.a); return 8;
+                case 0xE5: push(memory, readHL()); return 16;
+                case 0xE6: and(byteOperand(memory)); return 8;
+                case 0xE7: return restart(memory, 0x20);
+                case 0xE8: stackPointer.value = addToStackPointer(memory); return 16;
+                case 0xE9: programCounter.value = readHL(); return 4;
+                case 0xEA: memory.writeByte(wordOperand(memory), r.a); return 16;
+                case 0xEE: xor(byteOperand(memory)); return 8;
+                case 0xEF: return restart(memory, 0x28);
+
+                case 0xF0: r.a = memory.readByte(MMU.MemoryType.IO_REGISTERS.from + byteOperand(memory)); return 12;
+                case 0xF1: { int af = pop(memory); r.a = af >> 8; r.f = af & 0xF0; return 12; }
+                case 0xF2: r.a = memory.readByte(MMU.MemoryType.IO_REGISTERS.from + r.c); return 8;
+                case 0xF3: interrupts.setInterruptsDisabled(true); return 4;
+                case 0xF5: push(memory, (r.a << 8) | r.f); return 16;
+                case 0xF6: or(byteOperand(memory)); return 8;
+                case 0xF7: return restart(memory, 0x30);
+                case 0xF8: writeHL(addToStackPointer(memory)); return 12;
+                case 0xF9: stackPointer.value = readHL(); return 8;
+                case 0xFA: r.a = memory.readByte(wordOperand(memory)); return 16;
+                case 0xFB: interrupts.setInterruptsDisabled(false); return 4;
+                case 0xFE: compare(byteOperand(memory)); return 8;
+                case 0xFF: return restart(memory, 0x38);
+            }
+
+            if (opcode > 0xFF) {
+                return executePrefixed(opcode & 0xFF, memory);
             }
-            return instructionType;
+            throw new UnsupportedOperationException("Invalid instruction " + DebugPrinter.hex(opcode, 2) + ".");
+        }
+
+        /**
+         * All the instructions prefixed with CB uses the three lowest bits for what register to use (B, C, D, E, H, L, (HL), A),
+         * so these are decoded from the opcode instead of having a case for each of them.
+         */
+        private int executePrefixed(int opcode, Memory memory) {
+            int register = opcode & 0b111;
+            int bit = (opcode >> 3) & 0b111;
+            boolean addressOfHL = register == 0b110;
+            int value = addressOfHL ? memory.readByte(readHL()) : readRegister(register);
+
+            int result = switch (opcode >> 6) {
+                case 0b00 -> switch (bit) {
+                    case 0 -> rotateLeft(value, value >> 7, true);
+                    case 1 -> rotateRight(value, (value & 1) << 7, true);
+                    case 2 -> rotateLeft(value, carry(), true);
+                    case 3 -> rotateRight(value, carry() << 7, true);
+                    case 4 -> shift(value << 1, value >> 7);
+                    case 5 -> shift((value >> 1) | (value & 0b1000_0000), value & 1);
+                    case 6 -> swap(value);
+                    default -> shift(value >> 1, value & 1);
+                };
+                case 0b01 -> {
+                    registers.f = (registers.f & CARRY) | ((value & (1 << bit)) == 0 ? ZERO : 0) | HALF_CARRY;
+                    yield -1;
+                }
+                case 0b10 -> value & ~(1 << bit);
+                default -> value | (1 << bit);
+            };
+
+            if (result == -1) {
+                return addressOfHL ? 12 : 8;
+            }
+            if (addressOfHL) {
+                memory.writeByte(readHL(), result);
+                return 16;
+            }
+            writeRegister(register, result);
+            return 8;
+        }
+
+        private int readRegister(int register) {
+            return switch (register) {
+                case 0 -> registers.b;
+                case 1 -> registers.c;
+                case 2 -> registers.d;
+                case 3 -> registers.e;
+                case 4 -> registers.h;
+                case 5 -> registers.l;
+                default -> registers.a;
+            };
+        }
+
+        private void writeRegister(int register, int value) {
+            switch (register) {
+                case 0 -> registers.b = value;
+                case 1 -> registers.c = value;
+                case 2 -> registers.d = value;
+                case 3 -> registers.e = value;
+                case 4 -> registers.h = value;
+                case 5 -> registers.l = value;
+                default -> registers.a = value;
+            }
+        }
+
+        private int byteOperand(Memory memory) {
+            return programCounter.byteOperand(memory);
+        }
+
+        private int wordOperand(Memory memory) {
+            return programCounter.wordOperand(memory);
+        }
+
+        private int pop(Memory memory) {
+            int address = stackPointer.value;
+            int value = (memory.readByte(address + 1) << 8) | memory.readByte(address);
+            stackPointer.value = address + 2;
+            return value;
+        }
+
+        private void push(Memory memory, int value) {
+            int address = stackPointer.value - 1;
+            memory.writeByte(address, value >> 8);
+            address--;
+            memory.writeByte(address, value & 0xFF);
+            stackPointer.value = address;
+        }
+
+        private int readBC() {
+            return (registers.b << 8) | registers.c;
+        }
+
+        private int readDE() {
+            return (registers.d << 8) | registers.e;
+        }
+
+        private int readHL() {
+            return (registers.h << 8) | registers.l;
+        }
+
+        private void writeBC(int value) {
+            registers.b = value >> 8;
+            registers.c = value & 0xFF;
+        }
+
+        private void writeDE(int value) {
+            registers.d = value >> 8;
+            registers.e = value & 0xFF;
+        }
+
+        private void writeHL(int value) {
+            registers.h = value >> 8;
+            registers.l = value & 0xFF;
+        }
+
+        private int carry() {
+            return (registers.f & CARRY) != 0 ? 1 : 0;
+        }
+
+        private int zero(int result) {
+            return result == 0 ? ZERO : 0;
         }
 
-        protected Instruction resolveImpl(InstructionType instructionType) {
-            return instructionMap.getOrDefault(instructionType, invalidInstruction);
+        private void add(int n, int carry) {
+            int a = registers.a;
+            int result = a + n + carry;
+            registers.a = result & 0xFF;
+            registers.f = zero(result & 0xFF) | (((result ^ a ^ n) & 0x10) != 0 ? HALF_CARRY : 0) | (result > 0xFF ? CARRY : 0);
+        }
+
+        private void subtract(int n, int carry) {
+            int a = registers.a;
+            int result = a - n - carry;
+            registers.a = result & 0xFF;
+            registers.f = zero(result & 0xFF) | SUBTRACT | (((a & 0x0F) - (n & 0x0F) - carry) < 0 ? HALF_CARRY : 0) | (result < 0 ? CARRY : 0);
+        }
+
+        private void and(int n) {
+            registers.a = registers.a & n;
+            registers.f = zero(registers.a) | HALF_CARRY;
+        }
+
+        private void xor(int n) {
+            registers.a = (registers.a ^ n) & 0xFF;
+            registers.f = zero(registers.a);
+        }
+
+        private void or(int n) {
+            registers.a = registers.a | n;
+            registers.f = zero(registers.a);
+        }
+
+        private void compare(int n) {
+            int a = registers.a;
+            registers.f = (n == a ? ZERO : 0) | SUBTRACT | ((n & 0x0F) > (a & 0x0F) ? HALF_CARRY : 0) | (n > a ? CARRY : 0);
+        }
+
+        private int increment(int n) {
+            int result = (n + 1) & 0xFF;
+            registers.f = (registers.f & CARRY) | zero(result) | ((n & 0x0F) == 0x0F ? HALF_CARRY : 0);
+            return result;
+        }
+
+        private int decrement(int n) {
+            int result = (n - 1) & 0xFF;
+            registers.f = (registers.f & CARRY) | zero(result) | SUBTRACT | ((n & 0x0F) == 0 ? HALF_CARRY : 0);
+            return result;
+        }
+
+        private void addToHL(int n) {
+            int hl = readHL();
+            int result = hl + n;
+            boolean carry = result > 0xFFFF;
+            result = result & 0xFFFF;
+            writeHL(result);
+            registers.f = (registers.f & ZERO) | (((result ^ hl ^ n) & 0x1000) != 0 ? HALF_CARRY : 0) | (carry ? CARRY : 0);
+        }
+
+        private int addToStackPointer(Memory memory) {
+            int n = (byte) byteOperand(memory);
+            int sp = stackPointer.value;
+            int result = (sp + n) & 0xFFFF;
+            registers.f = (((sp ^ n ^ result) & 0x10) != 0 ? HALF_CARRY : 0) | (((sp ^ n ^ result) & 0x100) != 0 ? CARRY : 0);
+            return result;
+        }
+
+        private void decimalAdjustA() {
+            int a = registers.a;
+            int f = registers.f;
+
+            if ((f & SUBTRACT) == 0) {
+                if ((f & CARRY) != 0 || a > 0x99) {
+                    a += 0x60;
+                    f = f | CARRY;
+                }
+                if ((f & HALF_CARRY) != 0 || (a & 0x0F) > 0x09) {
+                    a += 0x06;
+                }
+            } else if ((f & CARRY) != 0 && (f & HALF_CARRY) != 0) {
+                a += 0x9A;
+            } else if ((f & CARRY) != 0) {
+                a += 0xA0;
+            } else if ((f & HALF_CARRY) != 0) {
+                a += 0xFA;
+            }
+
+            registers.a = a & 0xFF;
+            registers.f = (f & (SUBTRACT | CARRY)) | zero(registers.a);
+        }
+
+        private int rotateLeft(int n, int addOldCarry, boolean setZero) {
+            int result = ((n << 1) & 0xFF) | addOldCarry;
+            registers.f = (setZero ? zero(result) : 0) | ((n & 0b1000_0000) != 0 ? CARRY : 0);
+            return result;
+        }
+
+        private int rotateRight(int n, int addOldCarry, boolean setZero) {
+            int result = (n >> 1) | addOldCarry;
+            registers.f = (setZero ? zero(result) : 0) | ((n & 0b0000_0001) != 0 ? CARRY : 0);
+            return result;
+        }
+
+        private int shift(int result, int carry) {
+            result = result & 0xFF;
+            registers.f = zero(result) | (carry != 0 ? CARRY : 0);
+            return result;
+        }
+
+        private int swap(int n) {
+            int result = ((n & 0b0000_1111) << 4) | ((n & 0b1111_0000) >> 4);
+            registers.f = zero(result);
+            return result;
+        }
+
+        private int jumpRelative(Memory memory, boolean condition) {
+            int data = byteOperand(memory);
+            if (condition) {
+                programCounter.value = (programCounter.value + ((byte) data)) & 0xFFFF;
+                return 12;
+            }
+            return 8;
+        }
+
+        private int jump(Memory memory, boolean condition) {
+            int address = wordOperand(memory);
+            if (condition) {
+                programCounter.value = address;
+                return 16;
+            }
+            return 12;
+        }
+
+        private int call(Memory memory, boolean condition) {
+            int address = wordOperand(memory);
+            if (condition) {
+                push(memory, programCounter.value);
+                programCounter.value = address;
+                return 24;
+            }
+            return 12;
+        }
+
+        private int returnIf(Memory memory, boolean condition) {
+            if (condition) {
+                programCounter.value = pop(memory);
+                return 20;
+            }
+            return 8;
+        }
+
+        private int restart(Memory memory, int address) {
+            push(memory, programCounter.value);
+            programCounter.value = address;
+            return 16;
         }
     }
 
@@ -321,29 +1189,49 @@ public class CPU {
         int execute(Memory memory);
     }
 
+    private enum StateType {
+        NORMAL,
+        STOPPED,
+        HALTED,
+        HALT_BUG;
+
+        private static StateType of(State state) {
+            if (state instanceof StoppedState) {
+                return STOPPED;
+            } else if (state instanceof HaltedState) {
+                return HALTED;
+            } else if (state instanceof HaltBugState) {
+                return HALT_BUG;
+            }
+            return NORMAL;
+        }
+    }
+
     /**
      * The normal state for the CPU.
      * Execute instructions as normal and service requests only when IME is set.
      */
     private class NormalState implements State {
-        Instruction previous = null;
+        private static final int NONE = -1;
+
+        int previous = NONE;
 
         public int step(Memory memory) {
-            Instruction instruction = previous != null ? previous : instructionProvider.read(programCounter, memory);
-            int padding = instruction.paddingCycles();
+            int opcode = previous != NONE ? previous : fetch(memory);
+            int padding = interpreter.paddingCycles(opcode);
 
-            if (padding > 0 && previous == null) {
-                previous = instruction;
+            if (padding > 0 && previous == NONE) {
+                previous = opcode;
                 return padding;
             }
 
-            previous = null;
+            previous = NONE;
 
-            return instruction.execute(memory, registers, flags, programCounter, stackPointer) - padding;
+            return interpreter.execute(opcode, memory) - padding;
         }
 
         public int execute(Memory memory) {
-            if (!interrupts.interruptMasterEnable || previous != null) {
+            if (!interrupts.interruptMasterEnable || previous != NONE) {
                 return 0;
             }
             for (Interrupts.Interrupt interrupt : Interrupts.Interrupt.cachedValues()) {
@@ -13,6 +13,26 @@ public interface Flags {
 
     void set(Flag flag, boolean set);
 
+    /**
+     * Sets all flags from an 8-bit addition, the result should be unmasked so the carry can be seen.
+     */
+    void setFromAddition(int a, int n, int result);
+
+    /**
+     * Sets all flags from an 8-bit subtraction, the result should be unmasked so the borrow can be seen.
+     */
+    void setFromSubtraction(int a, int n, int result);
+
+    /**
+     * Sets all flags except carry from incrementing the value by one.
+     */
+    void setFromIncrement(int value);
+
+    /**
+     * Sets all flags except carry from decrementing the value by one.
+     */
+    void setFromDecrement(int value);
+
     void setInterruptsDisabled(boolean disabled);
 
     boolean isInterruptsDisabled();
@@ -0,0 +1,142 @@
+package se.omfilm.gameboy.internal;
+
+import java.util.Arrays;
+
+/**
+ * Finds loops where the CPU only waits for LY, STAT, IF or DIV to change, such as LDH A,(44h); CP n; JR NZ, so they don't have to run every iteration.
+ * <p>
+ * A short backward jump marks the start of a loop. If one iteration comes back there with the same registers as it started with,
+ * without any access counted by MMU.unskippableAccesses and without any component being stepped at a deadline in between,
+ * the next iteration will do exactly the same thing unless one of the polled registers changes.
+ * Those only change when a component is stepped at its deadline, or when DIV is increased.
+ * So every iteration that ends before that can be skipped at once.
+ */
+public class IdleLoopDetector {
+    private static final int MAX_LOOP_BYTES = 16;
+    private static final int NONE = -1;
+    private static final int UNKNOWN = -1;
+
+    private final CPU cpu;
+    private final MMU mmu;
+    private final Timer timer;
+    private final Scheduler scheduler;
+
+    private final int[] headState = new int[7];
+    private final int[] currentState = new int[7];
+    private int previousPC = NONE;
+    private int head = NONE;
+    private boolean headRecorded = false;
+    private long headTime;
+    private int headAccesses;
+    private int headDividerReads;
+    private long headDeadlineSteps;
+    private int headFlags = UNKNOWN;
+    private int headDivider = UNKNOWN;
+
+    public IdleLoopDetector(CPU cpu, MMU mmu, Timer timer, Scheduler scheduler) {
+        this.cpu = cpu;
+        this.mmu = mmu;
+        this.timer = timer;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Called after every step, returns how many cycles can be skipped from now but never more than maxCycles.
+     * The skipped cycles are always whole iterations of the loop, so it ends up at the start of it again.
+     */
+    public long skippableCycles(long maxCycles) {
+        int pc = cpu.programCounter().read();
+        int previous = previousPC;
+        previousPC = pc;
+        if (pc != head) {
+            if (pc > previous || previous - pc > MAX_LOOP_BYTES) {
+                return 0;
+            }
+            head = pc;
+            headRecorded = false;
+            headFlags = UNKNOWN;
+            headDivider = UNKNOWN;
+        }
+        if (!cpu.isBetweenInstructions()) {
+            headRecorded = false;
+            return 0;
+        }
+
+        captureState(currentState);
+        long now = scheduler.now();
+        boolean dividerRead = mmu.dividerReads() != headDividerReads;
+        boolean matched = headRecorded && now > headTime && scheduler.deadlineSteps() == headDeadlineSteps && mmu.unskippableAccesses() == headAccesses && Arrays.equals(currentState, headState);
+        if (matched) {
+            matched = sameFlags() & (!dividerRead || sameDivider());
+        } else {
+            headFlags = UNKNOWN;
+            if (dividerRead) {
+                headDivider = UNKNOWN;
+            }
+        }
+
+        long skipped = 0;
+        if (matched) {
+            long iteration = now - headTime;
+            long limit = Math.min(maxCycles, scheduler.cyclesUntilNextDeadline());
+            if (dividerRead) {
+                limit = Math.min(limit, timer.cyclesUntilDividerChange());
+            }
+            skipped = Math.max(0, limit / iteration) * iteration;
+        }
+
+        System.arraycopy(currentState, 0, headState, 0, headState.length);
+        headRecorded = true;
+        headTime = now + skipped;
+        headAccesses = mmu.unskippableAccesses();
+        headDividerReads = mmu.dividerReads();
+        headDeadlineSteps = scheduler.deadlineSteps();
+        return skipped;
+    }
+
+    /**
+     * Must be called when the state is changed from the outside, such as when loading a saved state.
+     */
+    public void reset() {
+        previousPC = NONE;
+        head = NONE;
+        headRecorded = false;
+        headFlags = UNKNOWN;
+        headDivider = UNKNOWN;
+    }
+
+    /**
+     * The flags are calculated lazily by the CPU, so they are only compared once everything else has matched.
+     * If they weren't known at the start of this iteration it can't be skipped, but the next one can.
+     */
+    private boolean sameFlags() {
+        int flags = cpu.registers().readF();
+        boolean same = flags == headFlags;
+        headFlags = flags;
+        return same;
+    }
+
+    /**
+     * DIV is only compared when it was read, then it must not have changed since the previous iteration read it.
+     * The timer has to be caught up first, which is only worth it once everything else has matched.
+     */
+    private boolean sameDivider() {
+        scheduler.sync(Scheduler.Event.TIMER);
+        int divider = timer.divider();
+        boolean same = divider == headDivider;
+        headDivider = divider;
+        return same;
+    }
+
+    private void captureState(int[] state) {
+        Registers registers = cpu.registers();
+        Interrupts interrupts = cpu.interrupts();
+        state[0] = registers.readA();
+        state[1] = registers.readBC();
+        state[2] = registers.readDE();
+        state[3] = registers.readHL();
+        state[4] = cpu.stackPointer().read();
+        state[5] = (interrupts.enabled() << 8) | interrupts.requested();
+        state[6] = cpu.flags().isInterruptsDisabled() ? 1 : 0;
+    }
+}
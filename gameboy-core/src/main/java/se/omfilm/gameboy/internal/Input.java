@@ -6,6 +6,7 @@ import se.omfilm.gameboy.io.controller.Controller;
 
 public class Input {
     private static final Logger log = LoggerFactory.getLogger(Input.class);
+    private static final int POLL_CYCLES = CPU.FREQUENCY / 4096;
 
     private final Controller controller;
 
@@ -32,6 +33,10 @@ public class Input {
         }
     }
 
+    public int cyclesUntilEvent() {
+        return POLL_CYCLES;
+    }
+
     public int readState() {
         return controllerState;
     }
@@ -44,6 +49,18 @@ public class Input {
         }
     }
 
+    public void saveState(StateWriter out) {
+        out.writeBoolean(checkDirections);
+        out.writeBoolean(checkButtons);
+        out.writeInt(controllerState);
+    }
+
+    public void loadState(StateReader in) {
+        checkDirections = in.readBoolean();
+        checkButtons = in.readBoolean();
+        controllerState = in.readInt();
+    }
+
     private int directionsState() {
         return 0b0000_1111
                 & (controller.isPressed(Controller.Button.DOWN) ? 0b0000_0111 : 0b0000_1111)
@@ -19,6 +19,44 @@ public interface Interrupts {
 
     boolean requested(Interrupt interrupt);
 
+    /**
+     * All the enabled interrupts as a bitmask, as in the interrupt enable register.
+     */
+    default int enabled() {
+        int result = 0;
+        for (Interrupt interrupt : Interrupt.cachedValues()) {
+            if (enabled(interrupt)) {
+                result = result | interrupt.mask();
+            }
+        }
+        return result;
+    }
+
+    default void enable(int mask) {
+        for (Interrupt interrupt : Interrupt.cachedValues()) {
+            enable(interrupt, (mask & interrupt.mask()) != 0);
+        }
+    }
+
+    /**
+     * All the requested interrupts as a bitmask, as in the interrupt request register.
+     */
+    default int requested() {
+        int result = 0;
+        for (Interrupt interrupt : Interrupt.cachedValues()) {
+            if (requested(interrupt)) {
+                result = result | interrupt.mask();
+            }
+        }
+        return result;
+    }
+
+    default void request(int mask) {
+        for (Interrupt interrupt : Interrupt.cachedValues()) {
+            request(interrupt, (mask & interrupt.mask()) != 0);
+        }
+    }
+
     /**
      * The allowed interrupts.
      * Each interrupt has a bit that can be masked against an int to see if that interrupt should be enabled/requested.
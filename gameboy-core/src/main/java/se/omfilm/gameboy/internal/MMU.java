@@ -5,26 +5,57 @@ import org.slf4j.LoggerFactory;
 import se.omfilm.gameboy.internal.memory.ByteArrayMemory;
 import se.omfilm.gameboy.internal.memory.Cartridge;
 import se.omfilm.gameboy.internal.memory.Memory;
+import se.omfilm.gameboy.internal.memory.PagedMemory;
 import se.omfilm.gameboy.internal.memory.ROM;
 import se.omfilm.gameboy.io.serial.SerialConnection;
 import se.omfilm.gameboy.util.EnumByValue;
 
+import java.util.Arrays;
+
 import static se.omfilm.gameboy.util.DebugPrinter.hex;
 
+/**
+ * Maps all the addresses to the different parts of the memory.
+ * <p>
+ * Most reads and writes go through a page table where each page of 256 bytes points directly into the byte array backing it,
+ * this is the case for reading ROM (for the banks currently selected in the MBC) and reading/writing the internal RAM (and the echo of it).
+ * The last page is shared between the I/O registers and the zero page so it's dispatched directly to either of them.
+ * Everything else goes through the slower path mapping the address to a MemoryType, since they either have side effects
+ * (I/O registers, writing to the MBC) or are stored in another form (video RAM and OAM in the PPU, the RAM banks of the cartridge).
+ */
 public class MMU implements Memory {
     private static final Logger log = LoggerFactory.getLogger(MMU.class);
+    private static final int PAGE_SIZE = 0x100;
+    private static final int PAGES = 0x100;
+    private static final int HIGH_PAGE = MemoryType.IO_REGISTERS.from >>> 8;
+    private static final int IO_EVENT_MASK = 0x7F;
+    private static final Scheduler.Event[] IO_EVENTS = ioEvents();
+
+    private final byte[][] readPages = new byte[PAGES][];
+    private final int[] readOffsets = new int[PAGES];
+    private final byte[][] writePages = new byte[PAGES][];
+    private final int[] writeOffsets = new int[PAGES];
+    private final PagedMemory[] writeOwners = new PagedMemory[PAGES]; //Written pages must be marked dirty in the memory owning them for the snapshots
+
+    private final byte[] romData;
+    private int mappedROMBank;
 
     private Cartridge rom;
-    private final Memory zeroPage;
+    private final PagedMemory zeroPage;
     private final Input input;
     private final PPU ppu;
     private final APU apu;
     private final Interrupts interrupts;
     private final Timer timer;
     private final SerialConnection serial;
-    private final Memory ram;
+    private final PagedMemory ram;
+    private final Scheduler scheduler;
+
+    private boolean countWrites = true;
+    private int unskippableAccesses = 0;
+    private int dividerReads = 0;
 
-    public MMU(ROM rom, PPU ppu, APU apu, Interrupts interrupts, Timer timer, SerialConnection serial, Input input) {
+    public MMU(ROM rom, PPU ppu, APU apu, Interrupts interrupts, Timer timer, SerialConnection serial, Input input, Scheduler scheduler) {
         this.rom = rom.createCartridge();
         this.apu = apu;
         this.interrupts = interrupts;
@@ -32,31 +63,76 @@ public class MMU implements Memory {
         this.serial = serial;
         this.input = input;
         this.ppu = ppu;
-        this.zeroPage = new ByteArrayMemory(MemoryType.ZERO_PAGE.allocate());
-        this.ram = new ByteArrayMemory(MemoryType.RAM.allocate());
+        this.scheduler = scheduler;
+        this.zeroPage = new PagedMemory(MemoryType.ZERO_PAGE.allocate());
+        this.ram = new PagedMemory(MemoryType.RAM.allocate());
+        this.romData = rom.data();
+
+        mapPages(MemoryType.RAM, ram);
+        mapPages(MemoryType.ECHO_RAM, ram);
+        mapROM();
     }
 
     public void step(int cycles) {
         rom.step(cycles);
     }
 
+    public void flush() {
+        rom.flush();
+    }
+
     public int readByte(int address) {
+        int page = address >>> 8;
+        if (page < PAGES) {
+            byte[] data = readPages[page];
+            if (data != null) {
+                return data[readOffsets[page] + (address & 0xFF)] & 0xFF;
+            } else if (page == HIGH_PAGE) {
+                return address < MemoryType.ZERO_PAGE.from || address > MemoryType.ZERO_PAGE.to ? readIO(address) : zeroPage.readByte(address - MemoryType.ZERO_PAGE.from);
+            }
+        }
+        return slowReadByte(address);
+    }
+
+    public void writeByte(int address, int data) {
+        if (countWrites) {
+            unskippableAccesses++;
+        }
+        int page = address >>> 8;
+        if (page < PAGES) {
+            byte[] target = writePages[page];
+            if (target != null) {
+                int index = writeOffsets[page] + (address & 0xFF);
+                target[index] = (byte) data;
+                writeOwners[page].markDirty(index);
+                return;
+            } else if (page == HIGH_PAGE) {
+                if (address < MemoryType.ZERO_PAGE.from || address > MemoryType.ZERO_PAGE.to) {
+                    writeIO(address, data);
+                } else {
+                    zeroPage.writeByte(address - MemoryType.ZERO_PAGE.from, data);
+                }
+                return;
+            }
+        }
+        slowWriteByte(address, data);
+    }
+
+    private int slowReadByte(int address) {
         MemoryType type = MemoryType.fromAddress(address);
         int virtualAddress = address - type.from;
         return switch (type) {
-            case ROM_BANK0, ROM_SWITCHABLE_BANKS, RAM_BANKS -> rom.readByte(address);
+            case ROM_BANK0, ROM_SWITCHABLE_BANKS -> rom.readByte(address);
+            case RAM_BANKS -> {
+                unskippableAccesses++; //The real time clock of the cartridge changes by itself
+                scheduler.sync(Scheduler.Event.CARTRIDGE);
+                yield rom.readByte(address);
+            }
             case RAM, ECHO_RAM -> ram.readByte(virtualAddress);
             case ZERO_PAGE -> zeroPage.readByte(virtualAddress);
             case VIDEO_RAM -> ppu.videoRAM().readByte(address);
             case OBJECT_ATTRIBUTE_MEMORY -> ppu.objectAttributeMemory().readByte(address);
-            case INTERRUPT_ENABLE, IO_REGISTERS -> {
-                try {
-                    yield IORegister.fromAddress(address).read(MMU.this);
-                } catch (Exception e) {
-                    log.warn(e.getMessage());
-                    yield 0xFF;
-                }
-            }
+            case INTERRUPT_ENABLE, IO_REGISTERS -> readIO(address);
             default -> {
                 log.warn("Reading from " + type + " at address " + hex(address, 4));
                 yield 0xFF;
@@ -64,85 +140,216 @@ public class MMU implements Memory {
         };
     }
 
-    public void writeByte(int address, int data) {
+    private void slowWriteByte(int address, int data) {
         MemoryType type = MemoryType.fromAddress(address);
         int virtualAddress = address - type.from;
         switch (type) {
-            case ROM_BANK0, ROM_SWITCHABLE_BANKS, RAM_BANKS -> rom.writeByte(address, data);
+            case ROM_BANK0, ROM_SWITCHABLE_BANKS -> {
+                scheduler.sync(Scheduler.Event.CARTRIDGE);
+                rom.writeByte(address, data);
+                scheduler.sync(Scheduler.Event.CARTRIDGE);
+                if (rom.switchableROMBank() != mappedROMBank) {
+                    mapROM();
+                }
+            }
+            case RAM_BANKS -> {
+                scheduler.sync(Scheduler.Event.CARTRIDGE);
+                rom.writeByte(address, data);
+                scheduler.sync(Scheduler.Event.CARTRIDGE);
+            }
             case VIDEO_RAM -> ppu.videoRAM().writeByte(address, data);
             case OBJECT_ATTRIBUTE_MEMORY -> ppu.objectAttributeMemory().writeByte(address, data);
             case ZERO_PAGE -> zeroPage.writeByte(virtualAddress, data);
-            case IO_REGISTERS, INTERRUPT_ENABLE -> {
-                try {
-                    IORegister.fromAddress(address).write(MMU.this, data);
-                } catch (Exception e) {
-                    log.warn(e.getMessage());
-                }
-            }
+            case IO_REGISTERS, INTERRUPT_ENABLE -> writeIO(address, data);
             case RAM, ECHO_RAM -> ram.writeByte(virtualAddress, data);
             default -> log.warn("Writing " + hex(data, 2) + " to " + MemoryType.UNUSABLE_MEMORY + " at " + hex(address, 4));
         }
     }
 
-    public void withBootData(byte[] boot) {
-        rom = new BootMemory(boot, rom);
+    /**
+     * Counts every write and every read of something that can change by itself, except the registers polled while waiting:
+     * LY, STAT and IF only change when their component is stepped and DIV is counted by dividerReads.
+     * If this hasn't changed after running some code then all it did was read memory that only the CPU writes to and those registers.
+     * Writes are only counted while enabled with countWrites(...), since they are the most common access and only needed when skipping idle loops.
+     */
+    public int unskippableAccesses() {
+        return unskippableAccesses;
     }
 
-    private int readWaveRAM(IORegister register) {
-        return apu.wavePatternRAM().readByte(register.address);
+    public void countWrites(boolean enabled) {
+        this.countWrites = enabled;
     }
 
-    private void writeWaveRAM(IORegister register, int data) {
-        apu.wavePatternRAM().writeByte(register.address, data);
+    public int dividerReads() {
+        return dividerReads;
     }
 
-    private int invalidRead(IORegister reg) {
-        log.warn("Reading from " + reg + " is not supported");
-        return 0xFF;
+    /**
+     * Reads from the I/O registers, the ones polled the most by games are handled here directly and the rest through the lambdas of the register.
+     * Nothing mapped at the address behaves like an open bus and reads 0xFF.
+     * The component owning the register is caught up with the CPU first.
+     */
+    private int readIO(int address) {
+        IORegister register = IORegister.fromAddress(address);
+        if (register == null) {
+            return 0xFF;
+        }
+        Scheduler.Event event = IO_EVENTS[address & IO_EVENT_MASK];
+        if (event != null) {
+            scheduler.sync(event);
+        }
+        return switch (register) {
+            case LCD_SCANLINE -> ppu.scanline();
+            case LCD_STATUS -> ppu.status();
+            case INTERRUPT_REQUEST -> interrupts.requested();
+            case TIMER_DIVIDER -> {
+                dividerReads++;
+                yield timer.divider();
+            }
+            case JOYPAD -> {
+                unskippableAccesses++;
+                yield input.readState();
+            }
+            default -> {
+                unskippableAccesses++;
+                yield register.read(this);
+            }
+        };
     }
 
-    private void invalidWrite(IORegister reg, int data) {
-        log.warn("Writing " + hex(data, 2) + " to " + reg + " is not supported");
+    private void writeIO(int address, int data) {
+        IORegister register = IORegister.fromAddress(address);
+        if (register == null) {
+            return;
+        }
+        Scheduler.Event event = IO_EVENTS[address & IO_EVENT_MASK];
+        if (event != null) {
+            scheduler.sync(event);
+        }
+        switch (register) {
+            case LCD_SCANLINE -> invalidWrite(register, data);
+            case LCD_STATUS -> ppu.interruptEnables(data);
+            case INTERRUPT_REQUEST -> interrupts.request(data);
+            case JOYPAD -> input.writeState(data);
+            case TIMER_DIVIDER -> timer.resetDivider();
+            default -> register.write(this, data);
+        }
+        if (event != null) {
+            scheduler.sync(event);
+        }
     }
 
-    private int requestedInterrupts() {
-        int result = 0;
-        for (Interrupts.Interrupt i : Interrupts.Interrupt.cachedValues()) {
-            if (interrupts.requested(i)) {
-                result = result | i.mask();
-            }
+    private static Scheduler.Event[] ioEvents() {
+        Scheduler.Event[] events = new Scheduler.Event[IO_EVENT_MASK + 1];
+        Arrays.fill(events, 0x00, 0x01, Scheduler.Event.INPUT);
+        Arrays.fill(events, 0x04, 0x08, Scheduler.Event.TIMER);
+        Arrays.fill(events, 0x10, 0x40, Scheduler.Event.APU);
+        Arrays.fill(events, 0x40, 0x4C, Scheduler.Event.PPU);
+        return events;
+    }
+
+    /**
+     * Saves the internal RAM and the cartridge, the I/O registers are saved by the components owning them.
+     * If the boot ROM is still mapped is saved in the header of the state, since it has to be checked before loading anything.
+     */
+    public void saveState(StateWriter out) {
+        out.writePages(ram);
+        out.writePages(zeroPage);
+        cartridge().saveState(out);
+    }
+
+    /**
+     * The header has already been checked so the boot ROM is mapped if the state was saved while booting, otherwise it is unmapped here.
+     */
+    public void loadState(StateReader in, boolean booting) {
+        in.readPages(ram);
+        in.readPages(zeroPage);
+        if (!booting) {
+            rom = cartridge();
         }
-        return result;
+        cartridge().loadState(in);
+        mapROM();
+    }
+
+    public boolean isBooting() {
+        return rom instanceof BootMemory;
     }
 
-    private void requestedInterrupts(int data) {
-        for (Interrupts.Interrupt i : Interrupts.Interrupt.cachedValues()) {
-            interrupts.request(i, (data & i.mask()) != 0);
+    private Cartridge cartridge() {
+        return rom instanceof BootMemory boot ? boot.delegate : rom;
+    }
+
+    public int romBank(int address) {
+        if (address > MemoryType.ROM_SWITCHABLE_BANKS.to) {
+            return NO_BANK;
         }
+        return rom.romBank(address);
+    }
+
+    public void withBootData(byte[] boot) {
+        rom = new BootMemory(boot, rom);
+        mapROM();
     }
 
-    private int enabledInterrupts() {
-        int result = 0;
-        for (Interrupts.Interrupt i : Interrupts.Interrupt.cachedValues()) {
-            if (interrupts.enabled(i)) {
-                result = result | i.mask();
+    /**
+     * Maps the pages of the ROM to the banks currently selected, every cartridge reads the switchable banks as an offset of the bank in the ROM data.
+     * Pages that can't be read directly (the boot ROM or outside the ROM data) are left to the slow path.
+     */
+    private void mapROM() {
+        mappedROMBank = rom.switchableROMBank();
+        for (int address = MemoryType.ROM_BANK0.from; address <= MemoryType.ROM_SWITCHABLE_BANKS.to; address += PAGE_SIZE) {
+            int page = address >>> 8;
+            int bank = rom.romBank(address);
+            int offset = address;
+            if (MemoryType.ROM_SWITCHABLE_BANKS.compareTo(address) == 0) {
+                offset = address + (bank - 1) * MemoryType.ROM_SWITCHABLE_BANKS.size();
+            }
+
+            if (bank == NO_BANK || offset < 0 || offset + PAGE_SIZE > romData.length) {
+                readPages[page] = null;
+            } else {
+                readPages[page] = romData;
+                readOffsets[page] = offset;
             }
         }
-        return result;
     }
 
-    private void enabledInterrupts(int data) {
-        for (Interrupts.Interrupt i : Interrupts.Interrupt.cachedValues()) {
-            interrupts.enable(i, (data & i.mask()) != 0);
+    /**
+     * Only memory keeping track of its written pages can be mapped for writing, otherwise the snapshots would share pages that has been changed.
+     */
+    private void mapPages(MemoryType type, PagedMemory memory) {
+        byte[] data = memory.data();
+        for (int address = type.from; address + PAGE_SIZE - 1 <= type.to; address += PAGE_SIZE) {
+            int page = address >>> 8;
+            int offset = address - type.from;
+            readPages[page] = data;
+            readOffsets[page] = offset;
+            writePages[page] = data;
+            writeOffsets[page] = offset;
+            writeOwners[page] = memory;
         }
     }
 
+    private int readWaveRAM(IORegister register) {
+        return apu.wavePatternRAM().readByte(register.address);
+    }
+
+    private void writeWaveRAM(IORegister register, int data) {
+        apu.wavePatternRAM().writeByte(register.address, data);
+    }
+
+    private int invalidRead(IORegister reg) {
+        log.warn("Reading from " + reg + " is not supported");
+        return 0xFF;
+    }
+
+    private void invalidWrite(IORegister reg, int data) {
+        log.warn("Writing " + hex(data, 2) + " to " + reg + " is not supported");
+    }
+
     @SuppressWarnings("unused")
-    private enum IORegister implements EnumByValue.ComparableByInt {
-        JOYPAD(0xFF00,
-                (mmu, reg) -> mmu.input.readState(),
-                (mmu, reg, data) -> mmu.input.writeState(data)
-        ),
+    private enum IORegister {
+        JOYPAD(0xFF00),
         SERIAL_TRANSFER_DATA(0xFF01,
                 (mmu, reg) -> mmu.serial.data(),
                 (mmu, reg, data) -> mmu.serial.data(data)
@@ -151,10 +358,7 @@ public class MMU implements Memory {
                 (mmu, reg) -> mmu.serial.control(),
                 (mmu, reg, data) -> mmu.serial.control(data)
         ),
-        TIMER_DIVIDER(0xFF04,
-                (mmu, reg) -> mmu.timer.divider(),
-                (mmu, reg, data) -> mmu.timer.resetDivider()
-        ),
+        TIMER_DIVIDER(0xFF04),
         TIMER_COUNTER(0xFF05,
                 (mmu, reg) -> mmu.timer.counter(),
                 (mmu, reg, data) -> mmu.timer.counter(data)
@@ -167,10 +371,7 @@ public class MMU implements Memory {
                 (mmu, reg) -> mmu.timer.control(),
                 (mmu, reg, data) -> mmu.timer.control(data)
         ),
-        INTERRUPT_REQUEST(0xFF0F,
-                (mmu, reg) -> mmu.requestedInterrupts(),
-                (mmu, reg, data) -> mmu.requestedInterrupts(data)
-        ),
+        INTERRUPT_REQUEST(0xFF0F),
         SOUND_1_SWEEP(0xFF10,
                 (mmu, reg) -> mmu.apu.sweep(APU.SoundId.SOUND1_SQUARE_WAVE),
                 (mmu, reg, data) -> mmu.apu.sweep(APU.SoundId.SOUND1_SQUARE_WAVE, data)
@@ -275,10 +476,7 @@ public class MMU implements Memory {
                 (mmu, reg) -> mmu.ppu.control(),
                 (mmu, reg, data) -> mmu.ppu.control(data)
         ),
-        LCD_STATUS(0xFF41,
-                (mmu, reg) -> mmu.ppu.status(),
-                (mmu, reg, data) -> mmu.ppu.interruptEnables(data)
-        ),
+        LCD_STATUS(0xFF41),
         SCROLL_Y(0xFF42,
                 (mmu, reg) -> mmu.ppu.scrollY(),
                 (mmu, reg, data) -> mmu.ppu.scrollY(data)
@@ -287,10 +485,7 @@ public class MMU implements Memory {
                 (mmu, reg) -> mmu.ppu.scrollX(),
                 (mmu, reg, data) -> mmu.ppu.scrollX(data)
         ),
-        LCD_SCANLINE(0xFF44,
-                (mmu, reg) -> mmu.ppu.scanline(),
-                MMU::invalidWrite
-        ),
+        LCD_SCANLINE(0xFF44),
         LCD_SCANLINE_COMPARE(0xFF45,
                 (mmu, reg) -> mmu.ppu.scanlineCompare(),
                 (mmu, reg, data) -> mmu.ppu.scanlineCompare(data)
@@ -324,11 +519,11 @@ public class MMU implements Memory {
                 (mmu, reg, data) -> mmu.rom.writeByte(0xFF50, data)
         ),
         INTERRUPT_ENABLE(0xFFFF,
-                (mmu, reg) -> mmu.enabledInterrupts(),
-                (mmu, reg, data) -> mmu.enabledInterrupts(data)
+                (mmu, reg) -> mmu.interrupts.enabled(),
+                (mmu, reg, data) -> mmu.interrupts.enable(data)
         );
 
-        private final static EnumByValue<IORegister> valuesCache = EnumByValue.create(values(), IORegister.class, IORegister::missing);
+        private static final IORegister[] registers = new IORegister[MemoryType.IO_REGISTERS.size()];
         private final int address;
         private final IOReader reader;
         private final IOWriter writer;
@@ -339,6 +534,13 @@ public class MMU implements Memory {
             this.writer = writer;
         }
 
+        /**
+         * The registers polled the most are read and written by readIO and writeIO directly, so they have no lambdas.
+         */
+        IORegister(int address) {
+            this(address, null, null);
+        }
+
         public int read(MMU mmu) {
             return reader.read(mmu, this);
         }
@@ -352,16 +554,22 @@ public class MMU implements Memory {
             return super.toString() + " (" + hex(address, 4) + ")";
         }
 
-        public static IORegister fromAddress(int address) {
-            return valuesCache.fromValue(address);
-        }
-
-        public static void missing(int address) {
-            throw new IllegalArgumentException("No " + IORegister.class.getSimpleName() + " for address " + hex(address, 4));
+        static {
+            for (IORegister register : values()) {
+                if (register != INTERRUPT_ENABLE) {
+                    registers[register.address - MemoryType.IO_REGISTERS.from] = register;
+                }
+            }
         }
 
-        public int compareTo(int value) {
-            return value - address;
+        /**
+         * Returns the register at the address, or null if nothing is mapped there.
+         */
+        public static IORegister fromAddress(int address) {
+            if (address == INTERRUPT_ENABLE.address) {
+                return INTERRUPT_ENABLE;
+            }
+            return registers[address - MemoryType.IO_REGISTERS.from];
         }
 
         private interface IOReader {
@@ -440,6 +648,10 @@ public class MMU implements Memory {
             this.delegate.step(cycles);
         }
 
+        public void flush() {
+            this.delegate.flush();
+        }
+
         public int readByte(int address) {
             if (address <= 0xFF) {
                 return boot.readByte(address);
@@ -448,9 +660,21 @@ public class MMU implements Memory {
 
         }
 
+        public int romBank(int address) {
+            if (address <= 0xFF) {
+                return NO_BANK;
+            }
+            return delegate.romBank(address);
+        }
+
+        public int switchableROMBank() {
+            return delegate.switchableROMBank();
+        }
+
         public void writeByte(int address, int data) {
             if (address == IORegister.BOOT_SUCCESS.address) {
                 rom = delegate;
+                mapROM();
                 return;
             }
             delegate.writeByte(address, data);
@@ -1,14 +1,22 @@
 package se.omfilm.gameboy.internal;
 
 import se.omfilm.gameboy.internal.memory.Memory;
+import se.omfilm.gameboy.internal.memory.PagedMemory;
 import se.omfilm.gameboy.io.color.Color;
 import se.omfilm.gameboy.io.color.ColorPalette;
+import se.omfilm.gameboy.io.screen.FrameSink;
 import se.omfilm.gameboy.io.screen.Screen;
 
-import java.util.BitSet;
+import java.util.Arrays;
+import java.util.function.Function;
 import java.util.stream.IntStream;
 
+/**
+ * Video RAM is kept as the raw 2 bits per pixel data written by the CPU, the background, window and sprites are decoded
+ * from it one tile row (2 bytes) at a time while a scanline is rendered into a line buffer.
+ */
 public class PPU {
+    private static final int VIDEO_RAM_SIZE = 0x2000;
     private static final int TILE_MAP_ADDRESS_0 = 0x9800;
     private static final int TILE_MAP_ADDRESS_1 = 0x9C00;
     private static final int TILE_MAP_WIDTH = 32;
@@ -16,30 +24,39 @@ public class PPU {
 
     private static final int TILE_WIDTH = 8;
     private static final int TILE_HEIGHT = 8;
-    private static final int TILE_COUNT = 384;
     private static final int TILE_BYTE_SIZE = 16;
+    private static final int TILE_ROW_BYTE_SIZE = 2;
+
+    public static final int FRAME_CYCLES = GPUMode.VBLANK.minimumCycles * (Screen.HEIGHT + 10);
+    private static final int OAM_END = GPUMode.VBLANK.minimumCycles - GPUMode.OAM.minimumCycles;
+    private static final int VRAM_END = OAM_END - GPUMode.VRAM.minimumCycles;
 
     private static final int SPRITE_COUNT = 40;
     private static final int SPRITE_BYTE_SIZE = 4;
     private static final int SPRITE_HEIGHT = 16;
     private static final int SPRITE_WIDTH = 8;
+    private static final int SPRITES_PER_SCANLINE = 10;
 
-    private final Screen screen;
-    private final ColorPalette colorPalette;
-    private final Memory videoRAM;
+    private final FrameSink frameSink;
+    private final PagedMemory videoRAM;
     private final Memory objectAttributeMemory;
 
-    private Palette backgroundPalette = new Palette(0);
-    private Palette objectPalette0 = new Palette(0);
-    private Palette objectPalette1 = new Palette(0);
+    private final Palette backgroundPalette;
+    private final Palette windowPalette;
+    private final Palette[] objectPalettes;
+    private final int blankColor;
 
-    private final Tile[] tiles = IntStream.range(0, TILE_COUNT).mapToObj(Tile::new).toArray(Tile[]::new);
+    private final byte[] videoRAMData = new byte[VIDEO_RAM_SIZE];
     private final Sprite[] sprites = IntStream.range(0, SPRITE_COUNT).mapToObj(Sprite::new).toArray(Sprite[]::new);
+    private final Sprite[] scanlineSprites = new Sprite[SPRITES_PER_SCANLINE];
     private int tileOffset = 0;
-    private final int[][] tileMap0 = new int[TILE_MAP_HEIGHT][TILE_MAP_WIDTH];
-    private final int[][] tileMap1 = new int[TILE_MAP_HEIGHT][TILE_MAP_WIDTH];
-    private int[][] windowTileMap = tileMap0;
-    private int[][] backgroundTileMap = tileMap0;
+    private int windowTileMap = TILE_MAP_ADDRESS_0;
+    private int backgroundTileMap = TILE_MAP_ADDRESS_0;
+
+    private final int[] tileRow = new int[TILE_WIDTH];
+    private final byte[] lineBuffer = new byte[Screen.WIDTH]; //Color numbers of the background/window, also used for sprite priority
+    private final boolean[] spritePixels = new boolean[Screen.WIDTH];
+    private final int[] frameBuffer = new int[Screen.WIDTH * Screen.HEIGHT];
 
     private GPUMode mode = GPUMode.HBLANK;
     private int scrollX = 0;
@@ -49,8 +66,8 @@ public class PPU {
 
     private int cycleCounter = 0;
     private int scanline = 0;
+    private long vblanks = 0;
     private int compareWithScanline = 0;
-    private final BitSet backgroundMask = new BitSet(Screen.WIDTH);
 
     private boolean lcdDisplay = false;
     private boolean windowDisplay = false;
@@ -65,10 +82,16 @@ public class PPU {
 
     private int lastDMAWrite = 0;
 
-    public PPU(Screen screen, ColorPalette colorPalette) {
-        this.colorPalette = colorPalette;
-        this.screen = screen;
-        this.videoRAM = new VideoRAM();
+    public PPU(FrameSink frameSink, ColorPalette colorPalette) {
+        this.frameSink = frameSink;
+        this.backgroundPalette = new Palette(shadeColors(colorPalette::background));
+        this.windowPalette = new Palette(shadeColors(colorPalette::window));
+        this.objectPalettes = new Palette[]{
+                new Palette(shadeColors(shade -> colorPalette.sprite(shade, 0))),
+                new Palette(shadeColors(shade -> colorPalette.sprite(shade, 1)))
+        };
+        this.blankColor = colorPalette.background(Shade.LIGHTEST).getRGB();
+        this.videoRAM = new PagedMemory(MMU.MemoryType.VIDEO_RAM.from, videoRAMData);
         this.objectAttributeMemory = new ObjectAttributeMemory();
     }
 
@@ -87,9 +110,10 @@ public class PPU {
         if (cycleCounter <= 0) {
             scanline++;
 
-            cycleCounter = GPUMode.VBLANK.minimumCycles;
+            cycleCounter += GPUMode.VBLANK.minimumCycles; //The cycles past the end of the line are carried over, so a frame is exactly FRAME_CYCLES long
 
             if (scanline == Screen.HEIGHT) {
+                vblanks++;
                 interrupts.request(Interrupts.Interrupt.VBLANK, true);
             } else if (scanline >= Screen.HEIGHT + 10) {
                 scanline = 0;
@@ -108,15 +132,13 @@ public class PPU {
             return false;
         }
 
-        if (scanline >= Screen.HEIGHT) {
-            updateCurrentMode(interrupts, GPUMode.VBLANK, vblankInterrupt);
-        } else if (cycleCounter >= GPUMode.VBLANK.minimumCycles - GPUMode.OAM.minimumCycles) {
-            updateCurrentMode(interrupts, GPUMode.OAM, oamInterrupt);
-        } else if (cycleCounter >= GPUMode.VBLANK.minimumCycles - GPUMode.OAM.minimumCycles - GPUMode.VRAM.minimumCycles) {
-            updateCurrentMode(interrupts, GPUMode.VRAM, false);
-        } else {
-            updateCurrentMode(interrupts, GPUMode.HBLANK, hblankInterrupt);
-        }
+        GPUMode newMode = currentMode();
+        updateCurrentMode(interrupts, newMode, switch (newMode) {
+            case VBLANK -> vblankInterrupt;
+            case OAM -> oamInterrupt;
+            case VRAM -> false;
+            case HBLANK -> hblankInterrupt;
+        });
 
         if (coincidence && scanline == compareWithScanline) {
             interrupts.request(Interrupts.Interrupt.LCD, true);
@@ -125,6 +147,37 @@ public class PPU {
         return true;
     }
 
+    private GPUMode currentMode() {
+        if (scanline >= Screen.HEIGHT) {
+            return GPUMode.VBLANK;
+        } else if (cycleCounter >= OAM_END) {
+            return GPUMode.OAM;
+        } else if (cycleCounter >= VRAM_END) {
+            return GPUMode.VRAM;
+        }
+        return GPUMode.HBLANK;
+    }
+
+    /**
+     * The mode is updated in the first step after the cycle counter has passed the end of the previous mode,
+     * so when it has changed the PPU needs to be stepped right away.
+     * The scanline compare interrupt is requested in every step while the scanline matches.
+     */
+    public int cyclesUntilEvent() {
+        if (!lcdDisplay) {
+            return Scheduler.NO_EVENT;
+        }
+        if ((coincidence && scanline == compareWithScanline) || currentMode() != mode) {
+            return 1;
+        }
+        if (scanline < Screen.HEIGHT && cycleCounter >= OAM_END) {
+            return cycleCounter - OAM_END + 1;
+        } else if (scanline < Screen.HEIGHT && cycleCounter >= VRAM_END) {
+            return cycleCounter - VRAM_END + 1;
+        }
+        return cycleCounter;
+    }
+
     private void updateCurrentMode(Interrupts interrupts, GPUMode newMode, boolean requestInterrupt) {
         if (requestInterrupt && newMode != mode) {
             interrupts.request(Interrupts.Interrupt.LCD, true);
@@ -133,68 +186,119 @@ public class PPU {
     }
 
     private void drawToScreen() {
-        screen.draw();
+        frameSink.frame(frameBuffer);
     }
 
     private void drawScanline() {
         if (backgroundDisplay) {
-            for (int x = 0; x < Screen.WIDTH; x++) {
-                if (windowDisplay && windowY <= scanline) {
-                    drawBackgroundWindowPixel(x);
-                } else {
-                    drawBackgroundPixel(x);
-                }
+            if (windowDisplay && windowY <= scanline) {
+                drawWindowLine();
+            } else {
+                drawBackgroundLine();
             }
+        } else {
+            Arrays.fill(lineBuffer, (byte) 0);
         }
         if (spriteDisplay) {
             drawSprites();
         }
     }
 
-    private void drawBackgroundWindowPixel(int x) {
-        int y = scanline - windowY;
-        int adjustedX = ((x + windowX - 7) + Screen.WIDTH) % Screen.WIDTH;
-        Tile tile = tileAt(adjustedX, y, windowTileMap);
-        Shade shade = tile.shadeAt(adjustedX, y, backgroundPalette);
-        drawPixel(x, shade, colorPalette.window(shade));
+    private void drawWindowLine() {
+        renderTileLine(windowTileMap, scanline - windowY, windowX - 7 + Screen.WIDTH, Screen.WIDTH);
+        drawLine(windowPalette);
     }
 
-    private void drawBackgroundPixel(int x) {
-        int y = scanline + scrollY;
-        int adjustedX = x + scrollX;
-        Tile tile = tileAt(adjustedX, y, backgroundTileMap);
-        Shade shade = tile.shadeAt(adjustedX, y, backgroundPalette);
-        drawPixel(x, shade, colorPalette.background(shade));
+    private void drawBackgroundLine() {
+        renderTileLine(backgroundTileMap, scanline + scrollY, scrollX, TILE_MAP_WIDTH * TILE_WIDTH);
+        drawLine(backgroundPalette);
     }
 
-    private void drawPixel(int x, Shade shade, Color color) {
-        backgroundMask.set(x, shade != Shade.LIGHTEST);
-        screen.setPixel(x, scanline - 1, color);
+    private void drawLine(Palette palette) {
+        for (int x = 0; x < Screen.WIDTH; x++) {
+            drawPixel(x, palette, lineBuffer[x]);
+        }
     }
 
-    private void drawSprites() {
-        for (int i = 0; i < sprites.length; i++) {
-            sprites[i].render();
+    /**
+     * Fills the line buffer with the color numbers of the tile map, starting at offsetX and wrapping around at wrapX.
+     * A tile row is only decoded when the line crosses into the next tile.
+     */
+    private void renderTileLine(int tileMap, int y, int offsetX, int wrapX) {
+        int row = (y / TILE_HEIGHT) % TILE_MAP_HEIGHT;
+        int tileY = y % TILE_HEIGHT;
+        int decodedColumn = -1;
+        for (int x = 0; x < Screen.WIDTH; x++) {
+            int adjustedX = (x + offsetX) % wrapX;
+            int column = adjustedX / TILE_WIDTH;
+            if (column != decodedColumn) {
+                decodeTileRow(tileAt(tileMap, column % TILE_MAP_WIDTH, row), tileY);
+                decodedColumn = column;
+            }
+            lineBuffer[x] = (byte) tileRow[adjustedX % TILE_WIDTH];
         }
     }
 
-    private void drawBlankScreen() {
-        for (int y = 0; y < Screen.HEIGHT; y++) {
-            for (int x = 0; x < Screen.WIDTH; x++) {
-                screen.setPixel(x, y, colorPalette.background(Shade.LIGHTEST));
+    private void decodeTileRow(int tile, int tileY) {
+        int address = tile * TILE_BYTE_SIZE + tileY * TILE_ROW_BYTE_SIZE;
+        int low = videoRAMData[address];
+        int high = videoRAMData[address + 1];
+        for (int x = 0; x < TILE_WIDTH; x++) {
+            int bit = TILE_WIDTH - 1 - x; //The x-coordinates are backwards
+            tileRow[x] = ((low >> bit) & 0b01) | (((high >> bit) << 1) & 0b10);
+        }
+    }
+
+    private int colorNumber(int tile, int x, int y) {
+        int address = tile * TILE_BYTE_SIZE + y * TILE_ROW_BYTE_SIZE;
+        int bit = TILE_WIDTH - 1 - x; //The x-coordinates are backwards
+        return ((videoRAMData[address] >> bit) & 0b01) | (((videoRAMData[address + 1] >> bit) << 1) & 0b10);
+    }
+
+    private void drawPixel(int x, Palette palette, int colorNumber) {
+        frameBuffer[(scanline - 1) * Screen.WIDTH + x] = palette.colors[colorNumber];
+    }
+
+    private void drawSprites() {
+        int count = selectScanlineSprites();
+        Arrays.fill(spritePixels, false);
+        for (int i = 0; i < count; i++) {
+            scanlineSprites[i].render();
+        }
+    }
+
+    /**
+     * Like the hardware only the first 10 sprites in OAM that are on the current scanline are drawn.
+     * They are sorted so the one with the lowest x-coordinate comes first, with OAM order deciding between equal x-coordinates.
+     */
+    private int selectScanlineSprites() {
+        int count = 0;
+        for (int i = 0; i < sprites.length && count < SPRITES_PER_SCANLINE; i++) {
+            Sprite sprite = sprites[i];
+            if (!sprite.isOnScanline()) {
+                continue;
+            }
+            int position = count++;
+            while (position > 0 && scanlineSprites[position - 1].x > sprite.x) {
+                scanlineSprites[position] = scanlineSprites[position - 1];
+                position--;
             }
+            scanlineSprites[position] = sprite;
         }
-        screen.draw();
+        return count;
+    }
+
+    private void drawBlankScreen() {
+        Arrays.fill(frameBuffer, blankColor);
+        frameSink.frame(frameBuffer);
     }
 
-    private Tile tileAt(int x, int y, int[][] tileMap) {
-        x = ((x / TILE_WIDTH) + TILE_MAP_WIDTH) % TILE_MAP_WIDTH;
-        y = ((y / TILE_HEIGHT) + TILE_MAP_HEIGHT) % TILE_MAP_HEIGHT;
-        int id = tileMap[y][x];
+    private int tileAt(int tileMap, int column, int row) {
+        int id = videoRAMData[tileMap - MMU.MemoryType.VIDEO_RAM.from + row * TILE_MAP_WIDTH + column];
         if (tileOffset != 0) {
-            id = tileOffset + ((byte) id);
+            return tileOffset + id;
         }
-        return tiles[id];
+        return id & 0xFF;
     }
 
     public void scrollY(int data) {
@@ -230,7 +334,8 @@ public class PPU {
     }
 
     public void backgroundPalette(int backgroundPaletteData) {
-        this.backgroundPalette = new Palette(backgroundPaletteData);
+        backgroundPalette.update(backgroundPaletteData);
+        windowPalette.update(backgroundPaletteData);
     }
 
     public int backgroundPalette() {
@@ -238,42 +343,42 @@ public class PPU {
     }
 
     public void objectPalette0(int data) {
-        this.objectPalette0 = new Palette(data);
+        objectPalettes[0].update(data);
     }
 
     public int objectPalette0() {
-        return objectPalette0.palette;
+        return objectPalettes[0].palette;
     }
 
     public void objectPalette1(int data) {
-        this.objectPalette1 = new Palette(data);
+        objectPalettes[1].update(data);
     }
 
     public int objectPalette1() {
-        return objectPalette1.palette;
+        return objectPalettes[1].palette;
     }
 
     public void control(int data) {
         lcdDisplay = (data & 0b1000_0000) != 0;
-        windowTileMap = (data & 0b0100_0000) != 0 ? tileMap1 : tileMap0;
+        windowTileMap = (data & 0b0100_0000) != 0 ? TILE_MAP_ADDRESS_1 : TILE_MAP_ADDRESS_0;
         windowDisplay = (data & 0b0010_0000) != 0;
         tileOffset = (data & 0b0001_0000) != 0 ? 0 : (0xFF + 1);
-        backgroundTileMap = (data & 0b0000_1000) != 0 ? tileMap1 : tileMap0;
+        backgroundTileMap = (data & 0b0000_1000) != 0 ? TILE_MAP_ADDRESS_1 : TILE_MAP_ADDRESS_0;
         largeSprites = (data & 0b0000_0100) != 0;
         spriteDisplay = (data & 0b0000_0010) != 0;
         backgroundDisplay = (data & 0b0000_0001) != 0;
 
         if (lcdDisplay) {
-            screen.turnOn();
+            frameSink.turnOn();
         }
     }
 
     public int control() {
         return (lcdDisplay ? 0b1000_0000 : 0) |
-                (windowTileMap == tileMap1 ? 0b0100_0000 : 0) |
+                (windowTileMap == TILE_MAP_ADDRESS_1 ? 0b0100_0000 : 0) |
                 (windowDisplay ? 0b0010_0000 : 0) |
                 (tileOffset == 0 ? 0b0001_0000 : 0) |
-                (backgroundTileMap == tileMap1 ? 0b0000_1000 : 0) |
+                (backgroundTileMap == TILE_MAP_ADDRESS_1 ? 0b0000_1000 : 0) |
                 (largeSprites ? 0b0000_0100 : 0) |
                 (spriteDisplay ? 0b0000_0010 : 0) |
                 (backgroundDisplay ? 0b0000_0001 : 0);
@@ -300,6 +405,13 @@ public class PPU {
         return scanline;
     }
 
+    /**
+     * How many times the PPU has entered VBlank, it's stepped at the cycle the scanline changes so this is never behind.
+     */
+    public long vblanks() {
+        return vblanks;
+    }
+
     public int scanlineCompare() {
         return compareWithScanline;
     }
@@ -341,84 +453,47 @@ public class PPU {
         windowY(0x00);
     }
 
-    private class VideoRAM implements Memory {
-        public int readByte(int address) {
-            if (address >= TILE_MAP_ADDRESS_0) {
-                return readTileMapByte(address);
-            } else {
-                return readTileByte(address);
-            }
-        }
-
-        public void writeByte(int address, int data) {
-            if (address >= TILE_MAP_ADDRESS_0) {
-                writeTileMapByte(address, data);
-            } else {
-                writeTileByte(address, data);
-            }
-        }
-
-        private void writeTileMapByte(int address, int value) {
-            int[][] tileMap;
-            if (address < TILE_MAP_ADDRESS_1) {
-                address -= TILE_MAP_ADDRESS_0;
-                tileMap = tileMap0;
-            } else {
-                address -= TILE_MAP_ADDRESS_1;
-                tileMap = tileMap1;
-            }
-
-            tileMap[address / TILE_MAP_HEIGHT][address % TILE_MAP_HEIGHT] = value;
-        }
-
-        private void writeTileByte(int address, int value) {
-            int virtualAddress = address - MMU.MemoryType.VIDEO_RAM.from;
-
-            Tile tile = tiles[virtualAddress / TILE_BYTE_SIZE]; //Each tile uses 16 bytes
-            int rowData = virtualAddress % TILE_BYTE_SIZE;
-            int y = rowData / 2; //Each row uses 2 bytes
-            for (int x = 0; x < TILE_WIDTH; x++) {
-                int colorBit = 1 << (TILE_WIDTH - 1 - x); //The x-coordinates are backwards
-                if (rowData % 2 == 0) { //The 2 bytes for each row should be combined into a single value with the first bytes value in bit 1 and the second bytes value in bit 0
-                    tile.graphics[y][x] = ((value & colorBit) != 0 ? 0b01 : 0b00) | (tile.graphics[y][x] & 0b10);
-                } else {
-                    tile.graphics[y][x] = ((value & colorBit) != 0 ? 0b10 : 0b00) | (tile.graphics[y][x] & 0b01);
-                }
-            }
-        }
-
-        private int readTileMapByte(int address) {
-            int[][] tileMap;
-            if (address < TILE_MAP_ADDRESS_1) {
-                address -= TILE_MAP_ADDRESS_0;
-                tileMap = tileMap0;
-            } else {
-                address -= TILE_MAP_ADDRESS_1;
-                tileMap = tileMap1;
-            }
-
-            return tileMap[address / TILE_MAP_HEIGHT][address % TILE_MAP_HEIGHT];
-        }
-
-        private int readTileByte(int address) {
-            int virtualAddress = address - MMU.MemoryType.VIDEO_RAM.from;
-            int result = 0;
-
-            Tile tile = tiles[virtualAddress / TILE_BYTE_SIZE]; //Each tile uses 16 bytes
-            int rowData = virtualAddress % TILE_BYTE_SIZE;
-            int y = rowData / 2; //Each row uses 2 bytes
-            for (int x = 0; x < TILE_WIDTH; x++) {
-                int colorBit = 1 << (TILE_WIDTH - 1 - x);  //The x-coordinates are backwards
-                int pixel = tile.graphics[y][x];
-                if (rowData % 2 == 0) { //The 2 bytes for each row should be combined into a single value with the first bytes value in bit 1 and the second bytes value in bit 0
-                    result = result | ((pixel & 0b01) != 0 ? colorBit : 0);
-                } else {
-                    result = result | ((pixel & 0b10) != 0 ? colorBit : 0);
-                }
-            }
-            return result;
-        }
-
+    /**
+     * The frame being drawn isn't saved, the scanlines before the current one are left from what was drawn before loading.
+     */
+    public void saveState(StateWriter out) {
+        out.writePages(videoRAM);
+        out.writeMemory(objectAttributeMemory, MMU.MemoryType.OBJECT_ATTRIBUTE_MEMORY.from, SPRITE_COUNT * SPRITE_BYTE_SIZE);
+        out.writeInt(control());
+        out.writeInt(status());
+        out.writeEnum(mode);
+        out.writeInt(scrollX);
+        out.writeInt(scrollY);
+        out.writeInt(windowX);
+        out.writeInt(windowY);
+        out.writeInt(backgroundPalette());
+        out.writeInt(objectPalette0());
+        out.writeInt(objectPalette1());
+        out.writeInt(cycleCounter);
+        out.writeInt(scanline);
+        out.writeLong(vblanks);
+        out.writeInt(compareWithScanline);
+        out.writeInt(lastDMAWrite);
+    }
+
+    public void loadState(StateReader in) {
+        in.readPages(videoRAM);
+        in.readMemory(objectAttributeMemory, MMU.MemoryType.OBJECT_ATTRIBUTE_MEMORY.from, SPRITE_COUNT * SPRITE_BYTE_SIZE);
+        control(in.readInt());
+        interruptEnables(in.readInt());
+        mode = in.readEnum(GPUMode.values());
+        scrollX = in.readInt();
+        scrollY = in.readInt();
+        windowX = in.readInt();
+        windowY = in.readInt();
+        backgroundPalette(in.readInt());
+        objectPalette0(in.readInt());
+        objectPalette1(in.readInt());
+        cycleCounter = in.readInt();
+        scanline = in.readInt();
+        vblanks = in.readLong();
+        compareWithScanline = in.readInt();
+        lastDMAWrite = in.readInt();
     }
 
     private class ObjectAttributeMemory implements Memory {
@@ -437,7 +512,7 @@ public class PPU {
                 case 3 -> (!sprite.prioritizeSprite ? 0b1000_0000 : 0) |
                         (sprite.flipY ? 0b0100_0000 : 0) |
                         (sprite.flipX ? 0b0010_0000 : 0) |
-                        (sprite.palette == objectPalette1 ? 0b0001_0000 : 0) |
+                        (sprite.palette == 1 ? 0b0001_0000 : 0) |
                         unusedData[spriteNumber];
                 default -> throw new IllegalArgumentException("Unreachable code");
             };
@@ -458,32 +533,13 @@ public class PPU {
                     sprite.prioritizeSprite = (data & 0b1000_0000) == 0;
                     sprite.flipY = (data & 0b0100_0000) != 0;
                     sprite.flipX = (data & 0b0010_0000) != 0;
-                    sprite.palette = (data & 0b0001_0000) == 0 ? objectPalette0 : objectPalette1;
+                    sprite.palette = (data & 0b0001_0000) == 0 ? 0 : 1;
                     unusedData[spriteNumber] = data & 0b0000_1111;
                 }
             }
         }
     }
 
-    private static class Tile {
-        private final int tileNumber;
-
-        private final int[][] graphics = new int[TILE_HEIGHT][TILE_WIDTH];
-
-        private Tile(int tileNumber) {
-            this.tileNumber = tileNumber;
-        }
-
-        private Shade shadeAt(int x, int y, Palette palette) {
-            return palette.shade(graphics[y % TILE_HEIGHT][x % TILE_WIDTH]);
-        }
-
-        @Override
-        public String toString() {
-            return "Tile(" + tileNumber + ")";
-        }
-    }
-
     private class Sprite {
         private final int spriteNum;
 
@@ -493,7 +549,7 @@ public class PPU {
         private boolean prioritizeSprite = true;
         private boolean flipY = false;
         private boolean flipX = false;
-        private Palette palette = objectPalette0;
+        private int palette = 0;
 
         private Sprite(int spriteNum) {
             this.spriteNum = spriteNum;
@@ -505,10 +561,6 @@ public class PPU {
         }
 
         private void render() {
-            if (!isOnScanline()) {
-                return;
-            }
-
             for (int i = 0; i < SPRITE_WIDTH; i++) {
                 int x = i;
                 int y = (scanline - this.y);
@@ -519,34 +571,25 @@ public class PPU {
                     y = height() - 1 - y;
                 }
 
-                if (this.x + i >= Screen.WIDTH || this.x + i < 0) {
+                int screenX = this.x + i;
+                if (screenX >= Screen.WIDTH || screenX < 0 || spritePixels[screenX]) {
                     continue;
                 }
 
-                if (!prioritizeSprite && backgroundMask.get(this.x + i)) {
+                int colorNumber = colorNumber(this.tileNumber + (y / TILE_HEIGHT), x, y % TILE_HEIGHT);
+                if (colorNumber == 0) {
                     continue;
                 }
+                spritePixels[screenX] = true; //A sprite with higher priority hides the ones after it even when it's behind the background
 
-                Tile tile = tiles[this.tileNumber + (y / TILE_HEIGHT)];
-
-                int colorData = tile.graphics[y % TILE_HEIGHT][x];
-                if (colorData == 0) {
+                if (!prioritizeSprite && lineBuffer[screenX] != 0) {
                     continue;
                 }
 
-                Shade shade = tile.shadeAt(x, y, palette);
-                drawPixel(this.x + i, shade, shadeToColor(shade));
+                drawPixel(screenX, objectPalettes[palette], colorNumber);
             }
         }
 
-        private Color shadeToColor(Shade shade) {
-            return colorPalette.sprite(shade, spritePaletteIndex());
-        }
-
-        private int spritePaletteIndex() {
-            return palette == objectPalette0 ? 0 : 1;
-        }
-
         private int height() {
             return largeSprites ? SPRITE_HEIGHT : (SPRITE_HEIGHT / 2);
         }
@@ -564,27 +607,41 @@ public class PPU {
         LIGHTEST
     }
 
+    /**
+     * Maps the 4 color numbers of a tile to packed RGB through the palette register,
+     * the lookup table is only rebuilt when the register is written.
+     */
     private static class Palette {
-        private final int palette;
+        private final int[] shadeColors;
+        private final int[] colors = new int[4];
+        private int palette;
 
-        private Palette(int palette) {
-            this.palette = palette;
+        private Palette(int[] shadeColors) {
+            this.shadeColors = shadeColors;
+            update(0);
         }
 
-        private Shade shade(int input) {
-            int offset = input * 2;
-            int mask = (0b0000_0011 << offset);
-            int result = (palette & mask) >> offset;
+        private void update(int palette) {
+            this.palette = palette;
+            for (int colorNumber = 0; colorNumber < colors.length; colorNumber++) {
+                colors[colorNumber] = shadeColors[shade(colorNumber)];
+            }
+        }
 
-            return switch (result) {
-                default -> Shade.LIGHTEST;
-                case 1 -> Shade.LIGHT;
-                case 2 -> Shade.DARK;
-                case 3 -> Shade.DARKEST;
-            };
+        private int shade(int colorNumber) {
+            return (palette >> (colorNumber * 2)) & 0b0000_0011;
         }
     }
 
+    private static int[] shadeColors(Function<Shade, Color> colors) {
+        return new int[]{
+                colors.apply(Shade.LIGHTEST).getRGB(),
+                colors.apply(Shade.LIGHT).getRGB(),
+                colors.apply(Shade.DARK).getRGB(),
+                colors.apply(Shade.DARKEST).getRGB()
+        };
+    }
+
     private enum GPUMode {
         HBLANK(0, 204),
         VBLANK(1, 456),
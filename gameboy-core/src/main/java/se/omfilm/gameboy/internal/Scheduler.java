@@ -0,0 +1,149 @@
+package se.omfilm.gameboy.internal;
+
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Keeps a deadline in CPU cycles for each component, so the components are only stepped when their next event is due
+ * instead of after every instruction. The cycles in between are given to the component in a single step.
+ * <p>
+ * A component must be synced before the CPU reads or writes any of its registers so it is up-to-date, and synced again
+ * after a write since that might move its next event.
+ */
+public class Scheduler {
+    public static final int NO_EVENT = Integer.MAX_VALUE;
+
+    private static final int EVENTS = Event.values().length;
+
+    private final IntConsumer[] steps = new IntConsumer[EVENTS];
+    private final IntSupplier[] nextEvents = new IntSupplier[EVENTS];
+    private final long[] stepped = new long[EVENTS];
+    private final long[] deadlines = new long[EVENTS];
+
+    private long now = 0;
+    private long nextDeadline = Long.MAX_VALUE;
+    private long deadlineSteps = 0;
+
+    /**
+     * Registers the component for the event, step is called with the cycles run since the last call and
+     * nextEvent returns how many cycles from now the component must be stepped again at the latest.
+     */
+    public void register(Event event, IntConsumer step, IntSupplier nextEvent) {
+        int i = event.ordinal();
+        steps[i] = step;
+        nextEvents[i] = nextEvent;
+        stepped[i] = now;
+        schedule(i);
+        updateNextDeadline();
+    }
+
+    /**
+     * Called after each CPU step. Zero cycles means the CPU is stopped, then every component is stepped anyway.
+     */
+    public void advance(int cycles) {
+        if (cycles == 0) {
+            for (int i = 0; i < EVENTS; i++) {
+                catchUp(i);
+                steps[i].accept(0);
+                schedule(i);
+            }
+            deadlineSteps++;
+            updateNextDeadline();
+            return;
+        }
+
+        now += cycles;
+        if (now < nextDeadline) {
+            return;
+        }
+        for (int i = 0; i < EVENTS; i++) {
+            if (deadlines[i] <= now) {
+                catchUp(i);
+                schedule(i);
+            }
+        }
+        deadlineSteps++;
+        updateNextDeadline();
+    }
+
+    public void sync(Event event) {
+        int i = event.ordinal();
+        catchUp(i);
+        schedule(i);
+        updateNextDeadline();
+    }
+
+    public void syncAll() {
+        for (int i = 0; i < EVENTS; i++) {
+            catchUp(i);
+            schedule(i);
+        }
+        updateNextDeadline();
+    }
+
+    public long now() {
+        return now;
+    }
+
+    /**
+     * How many times the components have been stepped because a deadline passed.
+     * Syncing only catches up to what the component would have been anyway, so the state can only change by itself when this changes.
+     */
+    public long deadlineSteps() {
+        return deadlineSteps;
+    }
+
+    /**
+     * No component will be stepped before this unless synced, so nothing else can happen before it either.
+     */
+    public long cyclesUntilNextDeadline() {
+        return nextDeadline - now;
+    }
+
+    /**
+     * Moves to the given time after the state of the components has been loaded, they are all treated as up-to-date and rescheduled.
+     */
+    public void restore(long now) {
+        this.now = now;
+        for (int i = 0; i < EVENTS; i++) {
+            stepped[i] = now;
+            schedule(i);
+        }
+        updateNextDeadline();
+    }
+
+    /**
+     * A component without any event can go unsynced for longer than an int can hold, so the cycles are given in chunks.
+     */
+    private void catchUp(int i) {
+        long cycles = now - stepped[i];
+        stepped[i] = now;
+        while (cycles > 0) {
+            int chunk = (int) Math.min(cycles, Integer.MAX_VALUE);
+            steps[i].accept(chunk);
+            cycles -= chunk;
+        }
+    }
+
+    private void schedule(int i) {
+        deadlines[i] = now + Math.max(1, nextEvents[i].getAsInt());
+    }
+
+    private void updateNextDeadline() {
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < EVENTS; i++) {
+            if (steps[i] != null) {
+                next = Math.min(next, deadlines[i]);
+            }
+        }
+        nextDeadline = next;
+    }
+
+    public enum Event {
+        INPUT,
+        TIMER,
+        PPU,
+        APU,
+        CARTRIDGE
+    }
+}
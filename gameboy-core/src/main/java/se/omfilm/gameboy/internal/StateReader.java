@@ -0,0 +1,72 @@
+package se.omfilm.gameboy.internal;
+
+import se.omfilm.gameboy.internal.memory.Memory;
+import se.omfilm.gameboy.internal.memory.PagedMemory;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reads back the values written by StateWriter, in the same order as they were written.
+ */
+public class StateReader {
+    private final ByteBuffer buffer;
+    private final Iterator<byte[][]> sharedPages;
+
+    public StateReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.sharedPages = null;
+    }
+
+    /**
+     * Reads a state written by a StateWriter sharing pages, the pages must be given in the same order.
+     */
+    public StateReader(ByteBuffer buffer, List<byte[][]> sharedPages) {
+        this.buffer = buffer;
+        this.sharedPages = sharedPages.iterator();
+    }
+
+    public boolean readBoolean() {
+        return buffer.get() != 0;
+    }
+
+    public int readByte() {
+        return buffer.get() & 0xFF;
+    }
+
+    public int readInt() {
+        return buffer.getInt();
+    }
+
+    public long readLong() {
+        return buffer.getLong();
+    }
+
+    public <T extends Enum<T>> T readEnum(T[] values) {
+        int ordinal = readByte();
+        if (ordinal >= values.length) {
+            throw new IllegalArgumentException("Invalid value " + ordinal + " in state for " + values.getClass().getComponentType().getSimpleName());
+        }
+        return values[ordinal];
+    }
+
+    public void readBytes(byte[] data) {
+        buffer.get(data);
+    }
+
+    public void readPages(PagedMemory memory) {
+        if (sharedPages != null) {
+            memory.restore(sharedPages.next());
+        } else {
+            readBytes(memory.data());
+            memory.markAllDirty();
+        }
+    }
+
+    public void readMemory(Memory memory, int from, int size) {
+        for (int address = from; address < from + size; address++) {
+            memory.writeByte(address, buffer.get() & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package se.omfilm.gameboy.internal;
+
+import se.omfilm.gameboy.internal.memory.Memory;
+import se.omfilm.gameboy.internal.memory.PagedMemory;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the state of the components as plain values in a fixed order, the StateReader must read them back in the same order.
+ * Either writes into a given buffer or into its own that grows when needed.
+ * <p>
+ * When sharing pages the paged memories aren't written to the buffer, instead their snapshots are kept as they are
+ * so a StateReader sharing the same pages can restore them without copying the unchanged ones.
+ */
+public class StateWriter {
+    private final boolean growable;
+    private final List<byte[][]> sharedPages;
+    private ByteBuffer buffer;
+
+    public StateWriter(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.growable = false;
+        this.sharedPages = null;
+    }
+
+    public StateWriter(int initialCapacity) {
+        this(initialCapacity, false);
+    }
+
+    public StateWriter(int initialCapacity, boolean sharePages) {
+        this.buffer = ByteBuffer.allocate(initialCapacity);
+        this.growable = true;
+        this.sharedPages = sharePages ? new ArrayList<>() : null;
+    }
+
+    public void writeBoolean(boolean value) {
+        writeByte(value ? 1 : 0);
+    }
+
+    public void writeByte(int value) {
+        ensureRemaining(1);
+        buffer.put((byte) value);
+    }
+
+    public void writeInt(int value) {
+        ensureRemaining(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    public void writeLong(long value) {
+        ensureRemaining(Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    public void writeEnum(Enum<?> value) {
+        writeByte(value.ordinal());
+    }
+
+    public void writeBytes(byte[] data) {
+        ensureRemaining(data.length);
+        buffer.put(data);
+    }
+
+    /**
+     * Writes the bytes of the memory for the given range of addresses, for memory that isn't backed by a plain array.
+     */
+    public void writeMemory(Memory memory, int from, int size) {
+        ensureRemaining(size);
+        for (int address = from; address < from + size; address++) {
+            buffer.put((byte) memory.readByte(address));
+        }
+    }
+
+    public void writePages(PagedMemory memory) {
+        if (sharedPages != null) {
+            sharedPages.add(memory.snapshot());
+        } else {
+            writeBytes(memory.data());
+        }
+    }
+
+    /**
+     * The snapshots of the paged memories in the order they were written, empty unless sharing pages.
+     */
+    public List<byte[][]> sharedPages() {
+        return sharedPages != null ? sharedPages : List.of();
+    }
+
+    /**
+     * The written state, from the start of the buffer to the current position.
+     */
+    public ByteBuffer written() {
+        return buffer.duplicate().flip();
+    }
+
+    private void ensureRemaining(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        if (!growable) {
+            throw new BufferOverflowException();
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        larger.put(buffer.flip());
+        buffer = larger;
+    }
+}
@@ -45,6 +45,23 @@ public class Timer {
         }
     }
 
+    /**
+     * The timer interrupt is the only event, the divider is only read by the CPU.
+     */
+    public int cyclesUntilEvent() {
+        if (!enabled) {
+            return Scheduler.NO_EVENT;
+        }
+        return timerCycles + (0xFF - timerCounter) * frequency.counterInitialValue();
+    }
+
+    /**
+     * The divider is increased when this many cycles have passed since the timer was last stepped.
+     */
+    public int cyclesUntilDividerChange() {
+        return dividerCycles;
+    }
+
     public void modulo(int data) {
         timerModulo = data;
     }
@@ -88,6 +105,26 @@ public class Timer {
         control(0x00);
     }
 
+    public void saveState(StateWriter out) {
+        out.writeBoolean(enabled);
+        out.writeEnum(frequency);
+        out.writeInt(dividerCycles);
+        out.writeInt(dividerCounter);
+        out.writeInt(timerCycles);
+        out.writeInt(timerCounter);
+        out.writeInt(timerModulo);
+    }
+
+    public void loadState(StateReader in) {
+        enabled = in.readBoolean();
+        frequency = in.readEnum(Frequency.values());
+        dividerCycles = in.readInt();
+        dividerCounter = in.readInt();
+        timerCycles = in.readInt();
+        timerCounter = in.readInt();
+        timerModulo = in.readInt();
+    }
+
     private enum Frequency implements EnumByValue.ComparableByInt {
         _4096(  0b0000_0000, 4096),
         _262144(0b0000_0001, 262144),
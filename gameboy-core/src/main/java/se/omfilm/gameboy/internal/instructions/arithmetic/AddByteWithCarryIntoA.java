@@ -9,17 +9,8 @@ public class AddByteWithCarryIntoA implements Instruction {
         int a = registers.readA();
         int result = n + a + (flags.isSet(Flags.Flag.CARRY) ? 1 : 0);
 
-        boolean carry = result > 0xFF;
-        result = result & 0xFF;
-        boolean halfCarry = ((result ^ a ^ n) & 0x10) != 0;
-        boolean zero = result == 0;
-
-        registers.writeA(result);
-
-        flags.set(Flags.Flag.ZERO, zero);
-        flags.set(Flags.Flag.SUBTRACT, false);
-        flags.set(Flags.Flag.HALF_CARRY, halfCarry);
-        flags.set(Flags.Flag.CARRY, carry);
+        registers.writeA(result & 0xFF);
+        flags.setFromAddition(a, n, result);
 
         return 8;
     }
@@ -14,15 +14,8 @@ public class DecrementByteRegister implements Instruction {
 
     public int execute(Memory memory, Registers registers, Flags flags, ProgramCounter programCounter, StackPointer stackPointer) {
         int value = source.read(registers);
-        boolean halfCarry = (value & 0x0F) == 0;
-        value = (value - 1) & 0xFF;
-        boolean zero = value == 0;
-
-        target.write(registers, value);
-
-        flags.set(Flags.Flag.ZERO, zero);
-        flags.set(Flags.Flag.SUBTRACT, true);
-        flags.set(Flags.Flag.HALF_CARRY, halfCarry);
+        target.write(registers, (value - 1) & 0xFF);
+        flags.setFromDecrement(value);
 
         return 4;
     }
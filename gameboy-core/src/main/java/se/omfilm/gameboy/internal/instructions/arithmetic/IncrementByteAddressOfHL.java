@@ -8,16 +8,8 @@ public class IncrementByteAddressOfHL implements MemoryModifyInstruction {
     public int execute(Memory memory, Registers registers, Flags flags, ProgramCounter programCounter, StackPointer stackPointer) {
         int address = registers.readHL();
         int n = memory.readByte(address);
-        int result = (n + 1) & 0xFF;
-
-        boolean zero = result == 0;
-        boolean halfCarry = (result & 0x0F) == 0;
-
-        memory.writeByte(address, result);
-
-        flags.set(Flags.Flag.SUBTRACT, false);
-        flags.set(Flags.Flag.ZERO, zero);
-        flags.set(Flags.Flag.HALF_CARRY, halfCarry);
+        memory.writeByte(address, (n + 1) & 0xFF);
+        flags.setFromIncrement(n);
 
         return 12;
     }
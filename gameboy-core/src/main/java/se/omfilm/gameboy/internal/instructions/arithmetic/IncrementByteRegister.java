@@ -14,15 +14,8 @@ public class IncrementByteRegister implements Instruction {
 
     public int execute(Memory memory, Registers registers, Flags flags, ProgramCounter programCounter, StackPointer stackPointer) {
         int n = source.read(registers);
-        int result = (n + 1) & 0xFF;
-        target.write(registers, result);
-
-        boolean zero = result == 0;
-        boolean halfCarry = (n & 0x0F) == 0x0F;
-
-        flags.set(Flags.Flag.ZERO, zero);
-        flags.set(Flags.Flag.SUBTRACT, false);
-        flags.set(Flags.Flag.HALF_CARRY, halfCarry);
+        target.write(registers, (n + 1) & 0xFF);
+        flags.setFromIncrement(n);
 
         return 4;
     }
@@ -14,18 +14,10 @@ public class SubtractAddressOfHLFromA implements MemoryReadInstruction {
     public int execute(Memory memory, Registers registers, Flags flags, ProgramCounter programCounter, StackPointer stackPointer) {
         int n = memory.readByte(registers.readHL());
         int a = registers.readA();
-
-        int result = (a - n - carry(flags));
-        boolean zero = (result & 0xFF) == 0;
-        boolean carry = result < 0;
-        boolean halfCarry = ((a & 0x0F) - (n & 0x0F) - carry(flags)) < 0;
+        int result = a - n - carry(flags);
 
         registers.writeA(result & 0xFF);
-
-        flags.set(Flags.Flag.ZERO, zero);
-        flags.set(Flags.Flag.SUBTRACT, true);
-        flags.set(Flags.Flag.HALF_CARRY, halfCarry);
-        flags.set(Flags.Flag.CARRY, carry);
+        flags.setFromSubtraction(a, n, result);
 
         return totalCycles();
     }
@@ -13,7 +13,7 @@ public class RotateAddressOfHLRight implements MemoryModifyInstruction {
 
     public int execute(Memory memory, Registers registers, Flags flags, ProgramCounter programCounter, StackPointer stackPointer) {
         int address = registers.readHL();
-        int n = memory.readWord(address);
+        int n = memory.readByte(address);
         int addOldCarry = carryTransfer.resolveCarry(flags, n);
 
         int result = ((n >> 1) + addOldCarry) & 0xFF;
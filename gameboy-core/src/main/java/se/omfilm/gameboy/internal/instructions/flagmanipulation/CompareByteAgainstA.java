@@ -8,14 +8,7 @@ public class CompareByteAgainstA implements Instruction {
         int n = programCounter.byteOperand(memory);
         int a = registers.readA();
 
-        boolean zero = n == a;
-        boolean carry = n > a;
-        boolean halfCarry = (n & 0x0F) > (a & 0x0F);
-
-        flags.set(Flags.Flag.ZERO, zero);
-        flags.set(Flags.Flag.SUBTRACT, true);
-        flags.set(Flags.Flag.HALF_CARRY, halfCarry);
-        flags.set(Flags.Flag.CARRY, carry);
+        flags.setFromSubtraction(a, n, a - n);
 
         return 8;
     }
@@ -14,14 +14,7 @@ public class CompareRegisterAgainstA implements Instruction {
         int n = source.read(registers);
         int a = registers.readA();
 
-        boolean zero = n == a;
-        boolean carry = a < n;
-        boolean halfCarry = (n & 0x0F) > (a & 0x0F);
-
-        flags.set(Flags.Flag.ZERO, zero);
-        flags.set(Flags.Flag.SUBTRACT, true);
-        flags.set(Flags.Flag.HALF_CARRY, halfCarry);
-        flags.set(Flags.Flag.CARRY, carry);
+        flags.setFromSubtraction(a, n, a - n);
 
         return 4;
     }
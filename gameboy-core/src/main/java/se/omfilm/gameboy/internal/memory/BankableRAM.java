@@ -1,28 +1,45 @@
 package se.omfilm.gameboy.internal.memory;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.omfilm.gameboy.internal.CPU;
 import se.omfilm.gameboy.internal.MMU;
+import se.omfilm.gameboy.internal.StateReader;
+import se.omfilm.gameboy.internal.StateWriter;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
 
+/**
+ * The banks are always kept in memory, so saving the state for rewinding every frame only copies the pages that has changed.
+ * RAM backed by a battery is persisted at most once every emulated second after it has been written, and when the emulator is stopped.
+ */
 public abstract class BankableRAM implements Memory {
-    private final Memory[] banks;
+    private static final Logger log = LoggerFactory.getLogger(BankableRAM.class);
+
+    private final PagedMemory[] banks;
 
     private boolean enabled = false;
     private int currentBank = 0;
+    private boolean written = false;
+    private long unpersistedCycles = 0;
 
     private BankableRAM(int banks) {
-        this.banks = new Memory[banks];
+        this.banks = new PagedMemory[banks];
         for (int i = 0; i < banks; i++) {
             this.banks[i] = createBank(i);
         }
     }
 
-    protected abstract Memory createBank(int bank);
+    protected abstract PagedMemory createBank(int bank);
 
     public abstract Memory clockData(int size);
 
+    protected abstract void persist(PagedMemory[] banks);
+
     public int readByte(int address) {
         if (!enabled) {
             return 0;
@@ -35,6 +52,7 @@ public abstract class BankableRAM implements Memory {
             return;
         }
         banks[currentBank].writeByte(address, data);
+        written = true;
     }
 
     public void enable(boolean enabled) {
@@ -45,28 +63,102 @@ public abstract class BankableRAM implements Memory {
         this.currentBank = bank;
     }
 
+    public void step(int cycles) {
+        if (written) {
+            unpersistedCycles += cycles;
+            if (unpersistedCycles >= CPU.FREQUENCY) {
+                flush();
+            }
+        }
+    }
+
+    public void flush() {
+        if (written) {
+            persist(banks);
+            written = false;
+            unpersistedCycles = 0;
+        }
+    }
+
+    public void saveState(StateWriter out) {
+        out.writeBoolean(enabled);
+        out.writeInt(currentBank);
+        for (PagedMemory bank : banks) {
+            out.writePages(bank);
+        }
+    }
+
+    public void loadState(StateReader in) {
+        enabled = in.readBoolean();
+        currentBank = in.readInt();
+        for (PagedMemory bank : banks) {
+            in.readPages(bank);
+        }
+        written = true;
+    }
+
     public static BankableRAM inMemory(int banks) {
         return new BankableRAM(banks) {
-            protected Memory createBank(int bank) {
-                return new ByteArrayMemory(MMU.MemoryType.RAM_BANKS.allocate());
+            protected PagedMemory createBank(int bank) {
+                return new PagedMemory(MMU.MemoryType.RAM_BANKS.allocate());
             }
 
             public Memory clockData(int size) {
                 return new ByteArrayMemory(new byte[size]);
             }
+
+            protected void persist(PagedMemory[] banks) {
+
+            }
         };
     }
 
-    public static BankableRAM toFile(int banks, File file) throws FileNotFoundException {
-        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    /**
+     * The file contains the banks followed by the clock data, anything past the end of the file is read as 0xFF.
+     */
+    public static BankableRAM toFile(int banks, File file) throws IOException {
+        byte[] saved = file.exists() ? Files.readAllBytes(file.toPath()) : new byte[0];
+        int bankSize = MMU.MemoryType.RAM_BANKS.size();
         return new BankableRAM(banks) {
-            protected Memory createBank(int bank) {
-                return new PersistentMemory(bank * MMU.MemoryType.RAM_BANKS.size(), raf);
+            private byte[] clockData = new byte[0];
+
+            protected PagedMemory createBank(int bank) {
+                return new PagedMemory(read(saved, bank * bankSize, bankSize));
             }
 
             public Memory clockData(int size) {
-                return new PersistentMemory(banks * MMU.MemoryType.RAM_BANKS.size(), raf);
+                clockData = read(saved, banks * bankSize, size);
+                return new ByteArrayMemory(clockData) {
+                    public void writeByte(int address, int data) {
+                        super.writeByte(address, data);
+                        markWritten();
+                    }
+                };
+            }
+
+            protected void persist(PagedMemory[] banks) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    for (PagedMemory bank : banks) {
+                        raf.write(bank.data());
+                    }
+                    raf.write(clockData);
+                } catch (IOException e) {
+                    log.warn("Could not save RAM to " + file, e);
+                }
             }
         };
     }
+
+    protected void markWritten() {
+        written = true;
+    }
+
+    private static byte[] read(byte[] saved, int from, int size) {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) 0xFF);
+        if (from < saved.length) {
+            System.arraycopy(saved, from, data, 0, Math.min(size, saved.length - from));
+        }
+        return data;
+    }
 }
@@ -1,5 +1,9 @@
 package se.omfilm.gameboy.internal.memory;
 
+import se.omfilm.gameboy.internal.MMU;
+import se.omfilm.gameboy.internal.StateReader;
+import se.omfilm.gameboy.internal.StateWriter;
+
 /**
  * Represents a physical cartridge of a game.
  * It's basically just a Memory, some implementations can have banks of ROM/RAM where writing to a special address changes which bank is used.
@@ -8,4 +12,38 @@ package se.omfilm.gameboy.internal.memory;
  */
 public interface Cartridge extends Memory {
     void step(int cycles);
+
+    /**
+     * The ROM bank that is mapped to MMU.MemoryType.ROM_SWITCHABLE_BANKS, changed by writing to the MBC.
+     */
+    default int switchableROMBank() {
+        return 1;
+    }
+
+    /**
+     * Writes the state of the MBC and the RAM banks, a cartridge without either has nothing to save.
+     */
+    default void saveState(StateWriter out) {
+
+    }
+
+    default void loadState(StateReader in) {
+
+    }
+
+    /**
+     * Persists RAM backed by a battery if it has been written since the last time, it's otherwise done once every emulated second in step(...).
+     */
+    default void flush() {
+
+    }
+
+    default int romBank(int address) {
+        if (address < MMU.MemoryType.ROM_SWITCHABLE_BANKS.from) {
+            return 0;
+        } else if (address <= MMU.MemoryType.ROM_SWITCHABLE_BANKS.to) {
+            return switchableROMBank();
+        }
+        return NO_BANK;
+    }
 }
@@ -3,6 +3,8 @@ package se.omfilm.gameboy.internal.memory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.omfilm.gameboy.internal.MMU;
+import se.omfilm.gameboy.internal.StateReader;
+import se.omfilm.gameboy.internal.StateWriter;
 import se.omfilm.gameboy.util.DebugPrinter;
 
 public class MBC1 implements Cartridge {
@@ -19,7 +21,27 @@ public class MBC1 implements Cartridge {
     }
 
     public void step(int cycles) {
+        ramBanks.step(cycles);
+    }
+
+    public void flush() {
+        ramBanks.flush();
+    }
+
+    public int switchableROMBank() {
+        return currentROMBank;
+    }
+
+    public void saveState(StateWriter out) {
+        out.writeEnum(mode);
+        out.writeInt(currentROMBank);
+        ramBanks.saveState(out);
+    }
 
+    public void loadState(StateReader in) {
+        mode = in.readEnum(MemoryMode.values());
+        currentROMBank = in.readInt();
+        ramBanks.loadState(in);
     }
 
     public int readByte(int address) {
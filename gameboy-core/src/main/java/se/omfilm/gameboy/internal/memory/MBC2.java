@@ -3,6 +3,8 @@ package se.omfilm.gameboy.internal.memory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.omfilm.gameboy.internal.MMU;
+import se.omfilm.gameboy.internal.StateReader;
+import se.omfilm.gameboy.internal.StateWriter;
 import se.omfilm.gameboy.util.DebugPrinter;
 
 public class MBC2 implements Cartridge {
@@ -17,7 +19,25 @@ public class MBC2 implements Cartridge {
     }
 
     public void step(int cycles) {
+        builtInRAM.step(cycles);
+    }
+
+    public void flush() {
+        builtInRAM.flush();
+    }
+
+    public int switchableROMBank() {
+        return currentROMBank;
+    }
+
+    public void saveState(StateWriter out) {
+        out.writeInt(currentROMBank);
+        builtInRAM.saveState(out);
+    }
 
+    public void loadState(StateReader in) {
+        currentROMBank = in.readInt();
+        builtInRAM.loadState(in);
     }
 
     public int readByte(int address) {
@@ -4,6 +4,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.omfilm.gameboy.internal.CPU;
 import se.omfilm.gameboy.internal.MMU;
+import se.omfilm.gameboy.internal.StateReader;
+import se.omfilm.gameboy.internal.StateWriter;
 import se.omfilm.gameboy.util.DebugPrinter;
 import se.omfilm.gameboy.util.EnumByValue;
 import se.omfilm.gameboy.util.Runner;
@@ -34,6 +36,29 @@ public class MBC3 implements Cartridge {
         for (int i = 0; i < cycles; i++) {
             clock.step();
         }
+        ramBanks.step(cycles);
+    }
+
+    public void flush() {
+        ramBanks.flush();
+    }
+
+    public int switchableROMBank() {
+        return currentROMBank;
+    }
+
+    public void saveState(StateWriter out) {
+        out.writeInt(currentROMBank);
+        out.writeEnum(mode);
+        ramBanks.saveState(out);
+        clock.saveState(out);
+    }
+
+    public void loadState(StateReader in) {
+        currentROMBank = in.readInt();
+        mode = in.readEnum(Mode.values());
+        ramBanks.loadState(in);
+        clock.loadState(in);
     }
 
     public int readByte(int address) {
@@ -104,6 +129,27 @@ public class MBC3 implements Cartridge {
             this.enabled = enabled;
         }
 
+        public void saveState(StateWriter out) {
+            out.writeInt(counter.remaining());
+            out.writeLong(duration.getSeconds());
+            out.writeLong(latchedDuration.getSeconds());
+            out.writeEnum(selectedRegister);
+            out.writeBoolean(enabled);
+            out.writeBoolean(latched);
+            out.writeBoolean(halted);
+        }
+
+        public void loadState(StateReader in) {
+            counter.remaining(in.readInt());
+            duration = Duration.ofSeconds(in.readLong());
+            latchedDuration = Duration.ofSeconds(in.readLong());
+            selectedRegister = in.readEnum(RTCRegister.values());
+            enabled = in.readBoolean();
+            latched = in.readBoolean();
+            halted = in.readBoolean();
+            persistClockRAM();
+        }
+
         public void latch(int data) {
             boolean shouldLatch = data == 0x0000_0001;
             if (!latched && shouldLatch) {
@@ -3,6 +3,8 @@ package se.omfilm.gameboy.internal.memory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.omfilm.gameboy.internal.MMU;
+import se.omfilm.gameboy.internal.StateReader;
+import se.omfilm.gameboy.internal.StateWriter;
 import se.omfilm.gameboy.util.DebugPrinter;
 
 public class MBC5 implements Cartridge {
@@ -19,7 +21,25 @@ public class MBC5 implements Cartridge {
     }
 
     public void step(int cycles) {
+        ramBanks.step(cycles);
+    }
+
+    public void flush() {
+        ramBanks.flush();
+    }
+
+    public int switchableROMBank() {
+        return currentROMBank;
+    }
+
+    public void saveState(StateWriter out) {
+        out.writeInt(currentROMBank);
+        ramBanks.saveState(out);
+    }
 
+    public void loadState(StateReader in) {
+        currentROMBank = in.readInt();
+        ramBanks.loadState(in);
     }
 
     public int readByte(int address) {
@@ -7,6 +7,8 @@ package se.omfilm.gameboy.internal.memory;
  * If the address is not writable it should do nothing and if it's not readable it should return 0xFF.
  */
 public interface Memory {
+    int NO_BANK = -1;
+
     int readByte(int address);
 
     void writeByte(int address, int data);
@@ -19,4 +21,11 @@ public interface Memory {
         writeByte(address, data & 0xFF);
         writeByte(address + 1, data >> 8);
     }
+
+    /**
+     * The ROM bank currently mapped at the address, or NO_BANK if the address isn't backed by ROM that only changes by switching banks.
+     */
+    default int romBank(int address) {
+        return NO_BANK;
+    }
 }
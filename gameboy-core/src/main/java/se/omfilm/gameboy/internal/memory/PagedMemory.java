@@ -0,0 +1,78 @@
+package se.omfilm.gameboy.internal.memory;
+
+import java.util.Arrays;
+
+/**
+ * Memory that keeps track of which pages has been written since the last snapshot.
+ * A snapshot is an array of read-only copies of the pages, where the pages that hasn't been written are the same copies as in the previous snapshot.
+ * Taking a snapshot or restoring one only copies the pages that differ, so many snapshots of the same memory share most of their pages.
+ */
+public class PagedMemory extends ByteArrayMemory {
+    public static final int PAGE_SIZE = 0x100;
+
+    private final byte[][] pages;
+    private final boolean[] dirty;
+
+    public PagedMemory(int offset, byte[] data) {
+        super(offset, data);
+        int pageCount = (data.length + PAGE_SIZE - 1) / PAGE_SIZE;
+        this.pages = new byte[pageCount][];
+        this.dirty = new boolean[pageCount];
+        Arrays.fill(dirty, true);
+    }
+
+    public PagedMemory(byte[] data) {
+        this(0, data);
+    }
+
+    @Override
+    public void writeByte(int address, int data) {
+        super.writeByte(address, data);
+        dirty[(address - offset) / PAGE_SIZE] = true;
+    }
+
+    /**
+     * Must be called by anything writing directly to the backing array instead of through writeByte.
+     */
+    public void markDirty(int index) {
+        dirty[index / PAGE_SIZE] = true;
+    }
+
+    /**
+     * Must be called after replacing the content of the backing array, since none of the pages can be shared anymore.
+     */
+    public void markAllDirty() {
+        Arrays.fill(dirty, true);
+    }
+
+    public byte[] data() {
+        return data;
+    }
+
+    /**
+     * The returned pages must never be written to, they can be shared with other snapshots.
+     */
+    public byte[][] snapshot() {
+        for (int page = 0; page < pages.length; page++) {
+            if (dirty[page]) {
+                int from = page * PAGE_SIZE;
+                pages[page] = Arrays.copyOfRange(data, from, Math.min(from + PAGE_SIZE, data.length));
+                dirty[page] = false;
+            }
+        }
+        return pages.clone();
+    }
+
+    public void restore(byte[][] snapshot) {
+        if (snapshot.length != pages.length) {
+            throw new IllegalArgumentException("Snapshot of " + snapshot.length + " pages can't be restored to memory of " + pages.length + " pages");
+        }
+        for (int page = 0; page < pages.length; page++) {
+            if (dirty[page] || pages[page] != snapshot[page]) {
+                System.arraycopy(snapshot[page], 0, data, page * PAGE_SIZE, snapshot[page].length);
+                pages[page] = snapshot[page];
+                dirty[page] = false;
+            }
+        }
+    }
+}
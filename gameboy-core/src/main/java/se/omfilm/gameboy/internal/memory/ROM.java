@@ -4,7 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.omfilm.gameboy.util.DebugPrinter;
 
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.function.BiFunction;
 
@@ -54,7 +54,7 @@ public class ROM {
         if (ramPath != null) {
             try {
                 return BankableRAM.toFile(ramSize.banks, ramPath.toFile());
-            } catch (FileNotFoundException e) {
+            } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
@@ -80,10 +80,24 @@ public class ROM {
         log.info("Region: " + region);
     }
 
+    /**
+     * The raw data of the ROM, it's never written to so the MMU can read the banks directly from it.
+     */
+    public byte[] data() {
+        return data;
+    }
+
     public String name() {
         return name;
     }
 
+    /**
+     * The header and global checksums from the header, to tell ROMs apart without going through all the data.
+     */
+    public int checksum() {
+        return (data[0x14D] & 0xFF) << 16 | (data[0x14E] & 0xFF) << 8 | (data[0x14F] & 0xFF);
+    }
+
     @SuppressWarnings("unused")
     private static Cartridge readOnly(ByteArrayMemory rom, BankableRAM ramBanks) {
         return new ReadOnlyMemory(rom);
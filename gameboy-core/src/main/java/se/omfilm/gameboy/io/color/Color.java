@@ -4,11 +4,17 @@ public class Color {
     private final byte red;
     private final byte green;
     private final byte blue;
+    private final int rgb;
 
     public Color(int red, int green, int blue) {
         this.red = (byte) red;
         this.green = (byte) green;
         this.blue = (byte) blue;
+        this.rgb = ((red & 0xFF) << 16) | ((green & 0xFF) << 8) | (blue & 0xFF);
+    }
+
+    public static Color fromRGB(int rgb) {
+        return new Color((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
     }
 
     public byte getRed() {
@@ -22,4 +28,8 @@ public class Color {
     public byte getBlue() {
         return blue;
     }
+
+    public int getRGB() {
+        return rgb;
+    }
 }
@@ -12,6 +12,13 @@ public interface Controller {
 
     void update();
 
+    /**
+     * Not a button on the Gameboy, but held down to make the emulator go backwards in time if it's keeping states for rewinding.
+     */
+    default boolean isRewinding() {
+        return false;
+    }
+
     enum Button {
         START,
         SELECT,
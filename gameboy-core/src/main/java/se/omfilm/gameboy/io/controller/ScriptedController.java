@@ -0,0 +1,60 @@
+package se.omfilm.gameboy.io.controller;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A controller that presses the buttons at the frames given by a script, so the same input can be replayed without a window.
+ * The script is a comma separated list of presses on the format BUTTON@FRAME or BUTTON@FIRST-LAST, such as "START@60,A@120-130".
+ * <p>
+ * Since nothing here knows about frames, the one running the emulator must call frame() before running each frame.
+ */
+public class ScriptedController implements Controller {
+    private final List<Press> presses;
+    private final Set<Button> pressed = EnumSet.noneOf(Button.class);
+    private long frame = -1;
+
+    public ScriptedController(String script) {
+        this.presses = parse(script);
+    }
+
+    public void frame(long frame) {
+        this.frame = frame;
+    }
+
+    public boolean isPressed(Button button) {
+        return pressed.contains(button);
+    }
+
+    public void update() {
+        pressed.clear();
+        for (Press press : presses) {
+            if (frame >= press.first && frame <= press.last) {
+                pressed.add(press.button);
+            }
+        }
+    }
+
+    private static List<Press> parse(String script) {
+        List<Press> result = new ArrayList<>();
+        if (script == null || script.isBlank()) {
+            return result;
+        }
+        for (String part : script.split(",")) {
+            String[] buttonAndFrames = part.trim().split("@");
+            if (buttonAndFrames.length != 2) {
+                throw new IllegalArgumentException("Can't handle " + part + " as a button press");
+            }
+            Button button = Button.valueOf(buttonAndFrames[0]);
+            String[] frames = buttonAndFrames[1].split("-");
+            long first = Long.parseLong(frames[0]);
+            long last = frames.length > 1 ? Long.parseLong(frames[1]) : first;
+            result.add(new Press(button, first, last));
+        }
+        return result;
+    }
+
+    private record Press(Button button, long first, long last) {}
+}
@@ -0,0 +1,18 @@
+package se.omfilm.gameboy.io.screen;
+
+/**
+ * The PPU outputs every finished frame to this interface as a single buffer of Screen.WIDTH * Screen.HEIGHT pixels,
+ * row by row, where each pixel is packed as 0xRRGGBB.
+ * <p>
+ * The buffer is reused for the next frame, so an implementation that needs the pixels after frame(...) has returned should copy them.
+ * <p>
+ * turnOn() and turnOff() can be called during runtime multiple times in a row,
+ * so the underlying implementation should handle state for that.
+ */
+public interface FrameSink {
+    void turnOn();
+
+    void turnOff();
+
+    void frame(int[] pixels);
+}
@@ -17,4 +17,8 @@ public class NullScreen implements Screen {
     public void draw() {
 
     }
+
+    public void frame(int[] pixels) {
+
+    }
 }
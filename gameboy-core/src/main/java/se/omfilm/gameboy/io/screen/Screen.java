@@ -3,7 +3,7 @@ package se.omfilm.gameboy.io.screen;
 import se.omfilm.gameboy.io.color.Color;
 
 /**
- * The GPU outputs its finished pixelbuffer to this interface.
+ * A pixel by pixel adapter on top of FrameSink.
  * setPixel(...) will be called for every row with every x-value in that order,
  * after that draw() is called, so nothing should be shown for the user before draw() has been called.
  * <p>
@@ -12,16 +12,21 @@ import se.omfilm.gameboy.io.color.Color;
  * <p>
  * The screens width, height and frequency is provided here but that doesn't mean it can't be scaled or run faster.
  */
-public interface Screen {
+public interface Screen extends FrameSink {
     int HEIGHT = 144;
     int WIDTH = 160;
     int FREQUENCY = 60;
 
-    void turnOn();
-
-    void turnOff();
-
     void setPixel(int x, int y, Color color);
 
     void draw();
+
+    default void frame(int[] pixels) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                setPixel(x, y, Color.fromRGB(pixels[y * WIDTH + x]));
+            }
+        }
+        draw();
+    }
 }
@@ -12,4 +12,8 @@ public class NullSoundPlayback implements SoundPlayback {
     public void output(int left, int right) {
 
     }
+
+    public void output(byte[] samples, int length) {
+
+    }
 }
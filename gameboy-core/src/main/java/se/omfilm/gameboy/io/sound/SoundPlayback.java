@@ -1,13 +1,49 @@
 package se.omfilm.gameboy.io.sound;
 
 public interface SoundPlayback {
-    int SAMPLING_RATE = 8192;
+    int SAMPLING_RATE = 48000;
     int BITS_PER_SAMPLE = 8;
     int CHANNELS = 2;
+    /**
+     * The fill of the device buffer to aim for when pacing, leaving room for the emulator to both run ahead and fall behind.
+     */
+    double TARGET_BUFFER_FILL = 0.5;
+
+    /**
+     * The rate the APU should produce samples at, it can be any rate since the APU resamples from the CPU clock.
+     */
+    default int samplingRate() {
+        return SAMPLING_RATE;
+    }
+
+    /**
+     * If output blocks while the buffer of the device is above TARGET_BUFFER_FILL instead of dropping samples,
+     * the emulator can then be paced by the device instead of a timer.
+     */
+    default boolean pacing() {
+        return false;
+    }
+
+    /**
+     * How full the buffer of the device is, from 0 to 1. Only used when pacing.
+     */
+    default double bufferFill() {
+        return 0;
+    }
 
     void start(int samplingRate);
 
     void stop();
 
     void output(int left, int right);
+
+    /**
+     * Outputs a block of samples with the left and right channels interleaved, length is the number of bytes to use from the array.
+     * The array is reused for the next block, so it has to be copied if it's needed after returning.
+     */
+    default void output(byte[] samples, int length) {
+        for (int i = 0; i < length; i += CHANNELS) {
+            output(samples[i], samples[i + 1]);
+        }
+    }
 }
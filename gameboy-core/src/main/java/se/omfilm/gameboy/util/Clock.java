@@ -0,0 +1,37 @@
+package se.omfilm.gameboy.util;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The source of time used when pacing the emulator, so it can be replaced with a virtual clock where waiting is free.
+ */
+public interface Clock {
+    long nanoTime();
+
+    /**
+     * Blocks the calling thread until the clock has reached the given time.
+     */
+    void sleepUntil(long nanoTime) throws InterruptedException;
+
+    static Clock system() {
+        return SystemClock.INSTANCE;
+    }
+
+    enum SystemClock implements Clock {
+        INSTANCE;
+
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        public void sleepUntil(long nanoTime) throws InterruptedException {
+            long remaining;
+            while ((remaining = nanoTime - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package se.omfilm.gameboy.util;
+
+/**
+ * Decides how long the emulator waits after each frame. Every Gameboy has its own so instances doesn't affect each other.
+ */
+public interface Pacing {
+    /**
+     * Called after each frame, blocks until the next frame should be run.
+     */
+    void awaitNextFrame() throws InterruptedException;
+
+    /**
+     * Runs at a fixed rate of frames per second on the wall clock.
+     */
+    static Pacing wallClock(int fps) {
+        return new FixedRatePacing(Clock.system(), fps);
+    }
+
+    /**
+     * Runs as fast as possible, also used when something else paces the emulator such as a sound device that blocks while its buffer is full.
+     */
+    static Pacing unthrottled() {
+        return () -> {};
+    }
+
+    class FixedRatePacing implements Pacing {
+        private static final int MAX_FRAMES_BEHIND = 5;
+
+        private final Clock clock;
+        private final long period;
+        private long nextFrame;
+        private boolean started = false;
+
+        public FixedRatePacing(Clock clock, int fps) {
+            this.clock = clock;
+            this.period = 1_000_000_000L / fps;
+        }
+
+        /**
+         * The deadlines are kept at a fixed rate from the first frame so they don't drift,
+         * unless it has fallen so far behind that catching up would mean running many frames without waiting.
+         */
+        public void awaitNextFrame() throws InterruptedException {
+            long now = clock.nanoTime();
+            if (!started || now - nextFrame > period * MAX_FRAMES_BEHIND) {
+                nextFrame = now;
+                started = true;
+            }
+            nextFrame += period;
+            clock.sleepUntil(nextFrame);
+        }
+    }
+}
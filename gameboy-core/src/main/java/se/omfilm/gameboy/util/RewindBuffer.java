@@ -0,0 +1,150 @@
+package se.omfilm.gameboy.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Keeps the history of saved states for rewinding, bounded by the memory it may use.
+ * Only the newest state is kept as it is, the older ones are stored as the difference to the state after them:
+ * the two states are XOR:ed so everything that didn't change becomes zeroes, and then the runs of zeroes are run-length encoded.
+ * Most of the memory doesn't change between two frames so each state only costs a small part of its size.
+ * <p>
+ * The encoding is a sequence of pairs where the first is the number of zeroes and the second is the number of literal bytes following it,
+ * both as variable length integers with 7 bits per byte.
+ */
+public class RewindBuffer {
+    private final long maxBytes;
+    private final Deque<byte[]> deltas = new ArrayDeque<>();
+    private byte[] newest;
+    private byte[] incoming = new byte[0];
+    private byte[] scratch = new byte[0];
+    private long deltaBytes = 0;
+
+    public RewindBuffer(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Adds the remaining bytes of the state as the newest, the buffer is read but not kept.
+     */
+    public void push(ByteBuffer state) {
+        int length = state.remaining();
+        if (newest != null && newest.length != length) {
+            clear();
+        }
+
+        if (newest == null) {
+            newest = new byte[length];
+            state.get(newest);
+            return;
+        }
+
+        byte[] delta = encodeDelta(state);
+        deltas.addLast(delta);
+        deltaBytes += delta.length;
+        while (deltaBytes > maxBytes && !deltas.isEmpty()) {
+            deltaBytes -= deltas.removeFirst().length;
+        }
+    }
+
+    /**
+     * Removes the newest state and returns it, or null if there is nothing left to rewind to.
+     * The returned buffer is only valid until the next call to this buffer.
+     */
+    public ByteBuffer pop() {
+        if (newest == null) {
+            return null;
+        }
+        byte[] state = newest;
+        if (deltas.isEmpty()) {
+            newest = null;
+        } else {
+            byte[] delta = deltas.removeLast();
+            deltaBytes -= delta.length;
+            newest = decodeDelta(state.clone(), delta);
+        }
+        return ByteBuffer.wrap(state);
+    }
+
+    public void clear() {
+        deltas.clear();
+        deltaBytes = 0;
+        newest = null;
+    }
+
+    /**
+     * The delta is against the previous newest state, which is then replaced with the new one.
+     */
+    private byte[] encodeDelta(ByteBuffer state) {
+        int length = newest.length;
+        if (incoming.length != length) {
+            incoming = new byte[length];
+        }
+        state.get(incoming);
+        if (scratch.length < length * 2 + 16) { //Room for the worst case where every other byte has changed
+            scratch = new byte[length * 2 + 16];
+        }
+
+        int out = 0;
+        int i = 0;
+        while (i < length) {
+            int zeroStart = i;
+            while (i < length && newest[i] == incoming[i]) {
+                i++;
+            }
+            int literalStart = i;
+            while (i < length && newest[i] != incoming[i]) {
+                i++;
+            }
+            out = writeVarInt(literalStart - zeroStart, out);
+            out = writeVarInt(i - literalStart, out);
+            for (int j = literalStart; j < i; j++) {
+                scratch[out++] = (byte) (newest[j] ^ incoming[j]);
+            }
+        }
+
+        byte[] previous = newest;
+        newest = incoming;
+        incoming = previous;
+        return Arrays.copyOf(scratch, out);
+    }
+
+    private static byte[] decodeDelta(byte[] state, byte[] delta) {
+        int position = 0;
+        int i = 0;
+        while (i < delta.length) {
+            int zeroes = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = delta[i++];
+                zeroes |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            int literals = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = delta[i++];
+                literals |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            position += zeroes;
+            for (int j = 0; j < literals; j++) {
+                state[position++] ^= delta[i++];
+            }
+        }
+        return state;
+    }
+
+    private int writeVarInt(int value, int out) {
+        while ((value & ~0x7F) != 0) {
+            scratch[out++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        scratch[out++] = (byte) value;
+        return out;
+    }
+}
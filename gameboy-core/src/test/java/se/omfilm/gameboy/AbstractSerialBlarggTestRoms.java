@@ -1,5 +1,6 @@
 package se.omfilm.gameboy;
 
+import se.omfilm.gameboy.internal.CPU;
 import se.omfilm.gameboy.internal.memory.ROM;
 import se.omfilm.gameboy.io.color.FixedColorPalette;
 import se.omfilm.gameboy.io.controller.NullController;
@@ -24,10 +25,14 @@ public abstract class AbstractSerialBlarggTestRoms {
 
     private void loadROM(byte[] rom) {
         serial = new StringSerialConnection();
-        target = new Gameboy(new NullScreen(), FixedColorPalette.PRESET.MONOCHROME.getPalette(), new NullController(), serial, new NullSoundPlayback(), ROM.load(rom), Gameboy.Speed.UNLIMITED);
+        target = new Gameboy(new NullScreen(), FixedColorPalette.PRESET.MONOCHROME.getPalette(), new NullController(), serial, new NullSoundPlayback(), ROM.load(rom), Gameboy.Speed.UNLIMITED, engine());
         target.reset();
     }
 
+    protected CPU.Engine engine() {
+        return CPU.Engine.INSTRUCTIONS;
+    }
+
     protected class StringSerialConnection implements SerialConnection {
         protected String result = "";
 
@@ -0,0 +1,41 @@
+package se.omfilm.gameboy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import se.omfilm.gameboy.internal.memory.ROM;
+import se.omfilm.gameboy.io.color.FixedColorPalette;
+import se.omfilm.gameboy.io.controller.NullController;
+import se.omfilm.gameboy.io.screen.NullScreen;
+import se.omfilm.gameboy.io.serial.NullSerialConnection;
+import se.omfilm.gameboy.io.sound.NullSoundPlayback;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+
+/**
+ * The I/O registers are accessed without catching anything, so every value written to them must be handled.
+ */
+@Timeout(10)
+public class IORegisterTests {
+    @Test
+    void itShouldHandleEveryValueWrittenToTheRegisters() throws IOException {
+        byte[] rom = ZipUtils.readClassPathZipFile("cpu_instrs.zip", "cpu_instrs/individual/03-op sp,hl.gb");
+        Gameboy target = new Gameboy(new NullScreen(), FixedColorPalette.PRESET.MONOCHROME.getPalette(), new NullController(), new NullSerialConnection(), new NullSoundPlayback(), ROM.load(rom), Gameboy.Speed.UNLIMITED);
+        target.reset();
+
+        for (int address = 0xFF00; address <= 0xFFFF; address++) {
+            if (address == 0xFF80) {
+                address = 0xFFFF;
+            }
+            for (int data = 0; data <= 0xFF; data++) {
+                int register = address;
+                int value = data;
+                assertDoesNotThrow(() -> {
+                    target.mmu.writeByte(register, value);
+                    target.mmu.readByte(register);
+                }, () -> "Writing " + Integer.toHexString(value) + " to " + Integer.toHexString(register));
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package se.omfilm.gameboy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs test roms that wait in halt or in loops polling the PPU and the timer, with and without skipping those loops.
+ * Skipping must not change anything, so both the serial output and the state after the same number of frames has to be the same.
+ * The roms writing their result to memory instead of the serial connection are compared by the state only.
+ */
+@Timeout(20)
+public class IdleLoopSkippingTests extends AbstractSerialBlarggTestRoms {
+    @Test
+    void itShouldGiveTheSameResultForInterrupts() throws IOException {
+        assertSameWithAndWithoutSkipping("cpu_instrs.zip", "cpu_instrs/individual/02-interrupts.gb", 300);
+    }
+
+    @Test
+    void itShouldGiveTheSameResultForInstructionTiming() throws IOException {
+        assertSameWithAndWithoutSkipping("instr_timing.zip", "instr_timing/instr_timing.gb", 300);
+    }
+
+    @Test
+    void itShouldGiveTheSameResultForHaltBug() throws IOException {
+        assertSameWithAndWithoutSkipping("halt_bug.zip", "halt_bug.gb", 100);
+    }
+
+    @Test
+    void itShouldGiveTheSameResultForOAMBug() throws IOException {
+        assertSameWithAndWithoutSkipping("oam_bug.zip", "oam_bug/oam_bug.gb", 200);
+    }
+
+    private void assertSameWithAndWithoutSkipping(String zipName, String romName, int frames) throws IOException {
+        loadROM(zipName, romName);
+        target.withIdleLoopSkipping(false);
+        runFrames(frames);
+        String expectedSerial = serial.result;
+        byte[] expectedState = saveState();
+
+        loadROM(zipName, romName);
+        target.withIdleLoopSkipping(true);
+        runFrames(frames);
+
+        assertEquals(expectedSerial, serial.result);
+        assertArrayEquals(expectedState, saveState());
+    }
+
+    private void runFrames(int frames) {
+        for (int i = 0; i < frames; i++) {
+            target.runFrame();
+        }
+    }
+
+    private byte[] saveState() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        target.saveState(out);
+        return out.toByteArray();
+    }
+}
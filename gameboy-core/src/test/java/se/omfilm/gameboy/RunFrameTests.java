@@ -0,0 +1,69 @@
+package se.omfilm.gameboy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import se.omfilm.gameboy.internal.memory.ROM;
+import se.omfilm.gameboy.io.color.FixedColorPalette;
+import se.omfilm.gameboy.io.controller.NullController;
+import se.omfilm.gameboy.io.screen.FrameSink;
+import se.omfilm.gameboy.io.serial.NullSerialConnection;
+import se.omfilm.gameboy.io.sound.NullSoundPlayback;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs a test rom that keeps the LCD on and verifies that the frames run by the Gameboy stays in phase with the frames of the PPU.
+ */
+@Timeout(10)
+public class RunFrameTests {
+    private static final int LCD_SCANLINE = 0xFF44;
+
+    private long frames = 0;
+
+    @Test
+    void itShouldRunOneFrameOfThePPUForEachFrame() throws IOException {
+        Gameboy target = gameboy();
+        target.runUntilVBlank();
+        long framesBefore = frames;
+        int scanline = target.mmu.readByte(LCD_SCANLINE);
+
+        for (int i = 0; i < 600; i++) {
+            target.runFrame();
+            assertEquals(scanline, target.mmu.readByte(LCD_SCANLINE), "Scanline after frame " + i);
+        }
+        assertEquals(600, frames - framesBefore);
+    }
+
+    @Test
+    void itShouldStopAtTheStartOfVBlank() throws IOException {
+        Gameboy target = gameboy();
+        for (int i = 0; i < 100; i++) {
+            target.runUntilVBlank();
+            assertEquals(144, target.mmu.readByte(LCD_SCANLINE), "Scanline after VBlank " + i);
+        }
+    }
+
+    private Gameboy gameboy() throws IOException {
+        byte[] rom = ZipUtils.readClassPathZipFile("cpu_instrs.zip", "cpu_instrs/individual/03-op sp,hl.gb");
+        Gameboy gameboy = new Gameboy(new CountingFrameSink(), FixedColorPalette.PRESET.MONOCHROME.getPalette(), new NullController(), new NullSerialConnection(), new NullSoundPlayback(), ROM.load(rom), Gameboy.Speed.UNLIMITED);
+        gameboy.reset();
+        for (int i = 0; i < 30; i++) { //Past where the test rom sets up the screen
+            gameboy.runFrame();
+        }
+        return gameboy;
+    }
+
+    private class CountingFrameSink implements FrameSink {
+        public void turnOn() {
+        }
+
+        public void turnOff() {
+        }
+
+        public void frame(int[] pixels) {
+            frames++;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package se.omfilm.gameboy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Saves the state in the middle of a test rom and verifies that it continues the same way when loaded into another instance.
+ * Also rewinds with the saved states, using a test rom that changes a lot of the memory between the frames.
+ */
+@Timeout(5)
+public class SaveStateTests extends AbstractSerialBlarggTestRoms {
+    private static final String ZIP_NAME = "cpu_instrs.zip";
+    private static final String ROM_NAME = "cpu_instrs/individual/02-interrupts.gb";
+    private static final String REWIND_ROM_NAME = "cpu_instrs/individual/03-op sp,hl.gb";
+
+    @Test
+    void itShouldContinueTheSameAfterLoadingIntoAnotherInstance() throws IOException {
+        loadROM(ZIP_NAME, ROM_NAME);
+        Gameboy original = target;
+        runFrames(original, 30);
+        byte[] saved = saveState(original);
+        runFrames(original, 60);
+
+        loadROM(ZIP_NAME, ROM_NAME);
+        Gameboy loaded = target;
+        loaded.loadState(new ByteArrayInputStream(saved));
+        runFrames(loaded, 60);
+
+        assertArrayEquals(saveState(original), saveState(loaded));
+    }
+
+    @Test
+    void itShouldNotChangeAnythingWhenTheBootROMIsMissing() throws IOException {
+        loadROM(ZIP_NAME, ROM_NAME);
+        Gameboy booting = target.withBootData(new byte[0x100]);
+        runFrames(booting, 1);
+        byte[] saved = saveState(booting);
+
+        loadROM(ZIP_NAME, ROM_NAME);
+        Gameboy withoutBoot = target;
+        runFrames(withoutBoot, 30);
+        byte[] before = saveState(withoutBoot);
+
+        assertThrows(IllegalArgumentException.class, () -> withoutBoot.loadState(new ByteArrayInputStream(saved)));
+        assertArrayEquals(before, saveState(withoutBoot));
+    }
+
+    @Test
+    void itShouldStepBackOneFrameAtATimeWhenRewinding() throws IOException {
+        loadROM(ZIP_NAME, REWIND_ROM_NAME);
+        Gameboy gameboy = target.withRewind(1, 1024 * 1024);
+        List<byte[]> states = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            gameboy.runFrame();
+            states.add(saveState(gameboy));
+        }
+
+        for (int i = states.size() - 2; i >= 0; i--) {
+            gameboy.rewindFrame();
+            assertArrayEquals(states.get(i), saveState(gameboy));
+        }
+        assertFalse(gameboy.rewindFrame());
+    }
+
+    private static void runFrames(Gameboy gameboy, int frames) {
+        for (int i = 0; i < frames; i++) {
+            gameboy.runFrame();
+        }
+    }
+
+    private static byte[] saveState(Gameboy gameboy) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        gameboy.saveState(out);
+        return out.toByteArray();
+    }
+}
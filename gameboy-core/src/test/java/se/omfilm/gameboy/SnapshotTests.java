@@ -0,0 +1,66 @@
+package se.omfilm.gameboy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Takes a snapshot in the middle of a test rom and verifies that it continues the same way when restored.
+ * The test rom changes a lot of the memory between the frames, so pages that aren't marked as written makes the restored state differ.
+ */
+@Timeout(5)
+public class SnapshotTests extends AbstractSerialBlarggTestRoms {
+    private static final String ZIP_NAME = "cpu_instrs.zip";
+    private static final String ROM_NAME = "cpu_instrs/individual/03-op sp,hl.gb";
+
+    @Test
+    void itShouldContinueTheSameAfterRestoringASnapshot() throws IOException {
+        loadROM(ZIP_NAME, ROM_NAME);
+        Gameboy original = target;
+        runFrames(original, 10);
+        Snapshot snapshot = original.snapshot();
+        byte[] atSnapshot = saveState(original);
+        runFrames(original, 20);
+        byte[] expected = saveState(original);
+
+        original.restore(snapshot);
+        assertArrayEquals(atSnapshot, saveState(original));
+        runFrames(original, 20);
+        assertArrayEquals(expected, saveState(original));
+    }
+
+    @Test
+    void itShouldForkFromASnapshotAfterTheParentHasTakenMoreSnapshots() throws IOException {
+        loadROM(ZIP_NAME, ROM_NAME);
+        Gameboy parent = target;
+        runFrames(parent, 10);
+        Snapshot snapshot = parent.snapshot();
+        byte[] atSnapshot = saveState(parent);
+        runFrames(parent, 20);
+        byte[] expected = saveState(parent);
+        parent.snapshot(); //Shares the unchanged pages with the first snapshot, which must not be changed by this
+
+        loadROM(ZIP_NAME, ROM_NAME);
+        Gameboy fork = target;
+        fork.restore(snapshot);
+        assertArrayEquals(atSnapshot, saveState(fork));
+        runFrames(fork, 20);
+        assertArrayEquals(expected, saveState(fork));
+    }
+
+    private static void runFrames(Gameboy gameboy, int frames) {
+        for (int i = 0; i < frames; i++) {
+            gameboy.runFrame();
+        }
+    }
+
+    private static byte[] saveState(Gameboy gameboy) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        gameboy.saveState(out);
+        return out.toByteArray();
+    }
+}
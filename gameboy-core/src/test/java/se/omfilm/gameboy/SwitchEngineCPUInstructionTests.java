@@ -0,0 +1,13 @@
+package se.omfilm.gameboy;
+
+import se.omfilm.gameboy.internal.CPU;
+
+/**
+ * Runs the same test roms as CPUInstructionTests but with the CPU using the switch-based engine.
+ */
+public class SwitchEngineCPUInstructionTests extends CPUInstructionTests {
+    @Override
+    protected CPU.Engine engine() {
+        return CPU.Engine.SWITCH;
+    }
+}
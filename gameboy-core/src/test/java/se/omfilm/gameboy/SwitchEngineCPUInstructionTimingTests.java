@@ -0,0 +1,13 @@
+package se.omfilm.gameboy;
+
+import se.omfilm.gameboy.internal.CPU;
+
+/**
+ * Runs the same test roms as CPUInstructionTimingTests but with the CPU using the switch-based engine.
+ */
+public class SwitchEngineCPUInstructionTimingTests extends CPUInstructionTimingTests {
+    @Override
+    protected CPU.Engine engine() {
+        return CPU.Engine.SWITCH;
+    }
+}
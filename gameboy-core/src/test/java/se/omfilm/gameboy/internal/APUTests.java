@@ -0,0 +1,90 @@
+package se.omfilm.gameboy.internal;
+
+import org.junit.jupiter.api.Test;
+import se.omfilm.gameboy.io.sound.SoundPlayback;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static se.omfilm.gameboy.io.sound.SoundPlayback.SAMPLING_RATE;
+import static se.omfilm.gameboy.io.sound.SoundPlayback.TARGET_BUFFER_FILL;
+
+public class APUTests {
+    @Test
+    void itShouldKeepTheRateWhenTheBufferIsAtTheTarget() {
+        assertEquals(SAMPLING_RATE, samplesPerSecond(TARGET_BUFFER_FILL), 1);
+    }
+
+    @Test
+    void itShouldProduceMoreSamplesWhenTheBufferIsBelowTheTarget() {
+        assertTrue(samplesPerSecond(TARGET_BUFFER_FILL / 2) > SAMPLING_RATE + 1);
+        assertTrue(samplesPerSecond(0) > samplesPerSecond(TARGET_BUFFER_FILL / 2));
+    }
+
+    @Test
+    void itShouldProduceFewerSamplesWhenTheBufferIsAboveTheTarget() {
+        assertTrue(samplesPerSecond(TARGET_BUFFER_FILL * 1.5) < SAMPLING_RATE - 1);
+        assertTrue(samplesPerSecond(1) < samplesPerSecond(TARGET_BUFFER_FILL * 1.5));
+    }
+
+    @Test
+    void itShouldNotAdjustTheRateWithoutPacing() {
+        assertEquals(SAMPLING_RATE, samplesPerSecond(false, 0), 1);
+    }
+
+    private static double samplesPerSecond(double bufferFill) {
+        return samplesPerSecond(true, bufferFill);
+    }
+
+    /**
+     * The first second is skipped, the rate is only adjusted after the first block and each block is output when the next frame starts.
+     */
+    private static double samplesPerSecond(boolean pacing, double bufferFill) {
+        FakeSoundPlayback device = new FakeSoundPlayback(pacing, bufferFill);
+        APU apu = new APU(device);
+        runOneSecond(apu);
+        device.samples = 0;
+        runOneSecond(apu);
+        return device.samples;
+    }
+
+    private static void runOneSecond(APU apu) {
+        for (int i = 0; i < CPU.FREQUENCY; i += 1024) {
+            apu.step(1024);
+        }
+    }
+
+    private static class FakeSoundPlayback implements SoundPlayback {
+        private final boolean pacing;
+        private final double bufferFill;
+        private long samples = 0;
+
+        private FakeSoundPlayback(boolean pacing, double bufferFill) {
+            this.pacing = pacing;
+            this.bufferFill = bufferFill;
+        }
+
+        public boolean pacing() {
+            return pacing;
+        }
+
+        public double bufferFill() {
+            return bufferFill;
+        }
+
+        public void start(int samplingRate) {
+
+        }
+
+        public void stop() {
+
+        }
+
+        public void output(int left, int right) {
+            samples++;
+        }
+
+        public void output(byte[] samples, int length) {
+            this.samples += length / CHANNELS;
+        }
+    }
+}
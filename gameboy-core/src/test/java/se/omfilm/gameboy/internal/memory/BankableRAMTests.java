@@ -0,0 +1,50 @@
+package se.omfilm.gameboy.internal.memory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.omfilm.gameboy.internal.CPU;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BankableRAMTests {
+    @TempDir
+    Path directory;
+
+    @Test
+    void itShouldReadWhatWasSavedToTheFile() throws IOException {
+        File file = directory.resolve("test.sav").toFile();
+        BankableRAM target = BankableRAM.toFile(2, file);
+        target.enable(true);
+        target.selectBank(1);
+        target.writeByte(0x10, 0x42);
+        target.clockData(8).writeByte(3, 0x17);
+        target.flush();
+
+        BankableRAM loaded = BankableRAM.toFile(2, file);
+        loaded.enable(true);
+        loaded.selectBank(1);
+        assertEquals(0x42, loaded.readByte(0x10));
+        assertEquals(0x17, loaded.clockData(8).readByte(3));
+        loaded.selectBank(0);
+        assertEquals(0xFF, loaded.readByte(0x10));
+    }
+
+    @Test
+    void itShouldOnlySaveToTheFileOnceEverySecond() throws IOException {
+        File file = directory.resolve("test.sav").toFile();
+        BankableRAM target = BankableRAM.toFile(1, file);
+        target.enable(true);
+        target.writeByte(0x10, 0x42);
+
+        target.step(CPU.FREQUENCY - 1);
+        assertFalse(file.exists());
+        target.step(1);
+        assertTrue(file.exists());
+    }
+}
@@ -0,0 +1,105 @@
+package se.omfilm.gameboy.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RewindBufferTests {
+    private static final int STATE_SIZE = 0x3000;
+
+    @Test
+    void itShouldPopTheStatesInReverseOrder() {
+        RewindBuffer target = new RewindBuffer(Long.MAX_VALUE);
+        List<byte[]> states = states(20, 50);
+        states.forEach(state -> target.push(ByteBuffer.wrap(state)));
+
+        for (int i = states.size() - 1; i >= 0; i--) {
+            assertArrayEquals(states.get(i), bytes(target.pop()));
+        }
+        assertNull(target.pop());
+    }
+
+    @Test
+    void itShouldHandleStatesWhereEverythingHasChanged() {
+        RewindBuffer target = new RewindBuffer(Long.MAX_VALUE);
+        List<byte[]> states = states(5, STATE_SIZE);
+        byte[] everyOther = states.get(4).clone();
+        for (int i = 0; i < everyOther.length; i += 2) {
+            everyOther[i]++;
+        }
+        states.add(everyOther); //The worst case for the encoding, a literal run of one byte after every zero run
+        states.forEach(state -> target.push(ByteBuffer.wrap(state)));
+
+        for (int i = states.size() - 1; i >= 0; i--) {
+            assertArrayEquals(states.get(i), bytes(target.pop()));
+        }
+        assertNull(target.pop());
+    }
+
+    @Test
+    void itShouldDropTheOldestStatesWhenOverTheLimit() {
+        List<byte[]> states = states(100, 50);
+        RewindBuffer target = new RewindBuffer(1000);
+        states.forEach(state -> target.push(ByteBuffer.wrap(state)));
+
+        int popped = 0;
+        ByteBuffer state;
+        while ((state = target.pop()) != null) {
+            assertArrayEquals(states.get(states.size() - 1 - popped), bytes(state));
+            popped++;
+        }
+        assertTrue(popped > 1 && popped < states.size(), "Expected some but not all of the states to be kept, got " + popped);
+    }
+
+    @Test
+    void itShouldOnlyKeepTheNewestStateWithoutRoomForDeltas() {
+        List<byte[]> states = states(3, 50);
+        RewindBuffer target = new RewindBuffer(0);
+        states.forEach(state -> target.push(ByteBuffer.wrap(state)));
+
+        assertArrayEquals(states.get(2), bytes(target.pop()));
+        assertNull(target.pop());
+    }
+
+    @Test
+    void itShouldStartOverWhenTheSizeOfTheStateChanges() {
+        RewindBuffer target = new RewindBuffer(Long.MAX_VALUE);
+        states(3, 50).forEach(state -> target.push(ByteBuffer.wrap(state)));
+        byte[] larger = new byte[STATE_SIZE + 1];
+        target.push(ByteBuffer.wrap(larger));
+
+        assertArrayEquals(larger, bytes(target.pop()));
+        assertNull(target.pop());
+    }
+
+    /**
+     * Each state is the previous one with a number of random bytes changed, like the memory between two frames.
+     */
+    private static List<byte[]> states(int count, int changesPerState) {
+        Random random = new Random(count);
+        List<byte[]> states = new ArrayList<>();
+        byte[] state = new byte[STATE_SIZE];
+        random.nextBytes(state);
+        for (int i = 0; i < count; i++) {
+            state = state.clone();
+            for (int j = 0; j < changesPerState; j++) {
+                state[random.nextInt(state.length)] = (byte) random.nextInt();
+            }
+            states.add(state);
+        }
+        return states;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
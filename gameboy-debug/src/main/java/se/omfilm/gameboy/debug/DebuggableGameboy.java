@@ -5,7 +5,7 @@ import se.omfilm.gameboy.internal.memory.Memory;
 import se.omfilm.gameboy.internal.memory.ROM;
 import se.omfilm.gameboy.io.color.ColorPalette;
 import se.omfilm.gameboy.io.controller.Controller;
-import se.omfilm.gameboy.io.screen.Screen;
+import se.omfilm.gameboy.io.screen.FrameSink;
 import se.omfilm.gameboy.io.serial.SerialConnection;
 import se.omfilm.gameboy.io.sound.SoundPlayback;
 
@@ -16,8 +16,9 @@ public class DebuggableGameboy extends Gameboy {
     private final Debugger debugger = new Debugger();
     private final DebugGUI debugGUI = new DebugGUI(debugger);
 
-    public DebuggableGameboy(Screen screen, ColorPalette colorPalette, Controller controller, SerialConnection serial, SoundPlayback soundPlayback, ROM rom, Speed speed) {
-        super(screen, colorPalette, controller, serial, soundPlayback, rom, speed);
+    public DebuggableGameboy(FrameSink frameSink, ColorPalette colorPalette, Controller controller, SerialConnection serial, SoundPlayback soundPlayback, ROM rom, Speed speed) {
+        super(frameSink, colorPalette, controller, serial, soundPlayback, rom, speed);
+        withIdleLoopSkipping(false);
     }
 
     @Override
@@ -399,6 +399,22 @@ public class EmulatorState {
             throw new UnsupportedOperationException("set() not supported in " + getClass().getName());
         }
 
+        public void setFromAddition(int a, int n, int result) {
+            throw new UnsupportedOperationException("setFromAddition() not supported in " + getClass().getName());
+        }
+
+        public void setFromSubtraction(int a, int n, int result) {
+            throw new UnsupportedOperationException("setFromSubtraction() not supported in " + getClass().getName());
+        }
+
+        public void setFromIncrement(int value) {
+            throw new UnsupportedOperationException("setFromIncrement() not supported in " + getClass().getName());
+        }
+
+        public void setFromDecrement(int value) {
+            throw new UnsupportedOperationException("setFromDecrement() not supported in " + getClass().getName());
+        }
+
         public void setInterruptsDisabled(boolean disabled) {
             throw new UnsupportedOperationException("setInterruptsDisabled() not supported in " + getClass().getName());
         }
@@ -29,6 +29,18 @@ public class GLFWCompositeController implements Controller, WindowChangeListener
         return false;
     }
 
+    public boolean isRewinding() {
+        if (keyboard.isRewinding()) {
+            return true;
+        }
+        for (int i = 0; i < joypads.length; i++) {
+            if (joypads[i].isRewinding()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void update() {
         if (System.currentTimeMillis() - lastCheck <= (Screen.FREQUENCY / 60)) { //Only perform the expensive check once every frame
             return;
@@ -30,6 +30,10 @@ public class GLFWJoypadController implements Controller, WindowChangeListener {
         };
     }
 
+    public boolean isRewinding() {
+        return checkButton(GLFW_GAMEPAD_BUTTON_LEFT_BUMPER);
+    }
+
     public void update() {
         GLFW.glfwGetGamepadState(joypad, state);
     }
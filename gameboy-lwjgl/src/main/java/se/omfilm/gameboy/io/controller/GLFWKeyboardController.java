@@ -27,6 +27,10 @@ public class GLFWKeyboardController implements Controller, WindowChangeListener
         };
     }
 
+    public boolean isRewinding() {
+        return checkKey(GLFW.GLFW_KEY_BACKSPACE);
+    }
+
     public void update() {
 
     }
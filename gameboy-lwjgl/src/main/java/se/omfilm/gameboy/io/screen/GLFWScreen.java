@@ -5,7 +5,6 @@ import org.lwjgl.glfw.GLFW;
 import org.lwjgl.glfw.GLFWVidMode;
 import org.lwjgl.opengl.GL;
 import org.lwjgl.system.MemoryUtil;
-import se.omfilm.gameboy.io.color.Color;
 
 import java.nio.ByteBuffer;
 import java.util.concurrent.Executors;
@@ -16,7 +15,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL12.*;
 
-public class GLFWScreen implements Screen {
+public class GLFWScreen implements FrameSink {
     private static final int UPDATE_FPS_INTERVAL_SECONDS = 2;
 
     private final String title;
@@ -54,22 +53,18 @@ public class GLFWScreen implements Screen {
         turnedOn.set(false);
     }
 
-    public void setPixel(int x, int y, Color color) {
-        pixelBuffer[index(x, y)] = color.getRed();
-        pixelBuffer[index(x, y) + 1] = color.getGreen();
-        pixelBuffer[index(x, y) + 2] = color.getBlue();
-    }
-
-    public void draw() {
+    public void frame(int[] pixels) {
+        for (int i = 0, j = 0; i < pixels.length; i++, j += 3) {
+            int rgb = pixels[i];
+            pixelBuffer[j] = (byte) (rgb >> 16);
+            pixelBuffer[j + 1] = (byte) (rgb >> 8);
+            pixelBuffer[j + 2] = (byte) rgb;
+        }
         fps.incrementEngine();
         fps.update();
         pixelBufferTransfer.set(pixelBuffer);
     }
 
-    private int index(int x, int y) {
-        return 3 * ((y * Screen.WIDTH) + x);
-    }
-
     private class GLWindowRenderer implements Runnable {
         public void run() {
             window = initializeWindow();
@@ -8,27 +8,62 @@ import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.SourceDataLine;
 import java.util.concurrent.Executors;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 //TODO: use lwjgl for sound too
+/**
+ * The emulator thread writes to a ring buffer that a separate thread copies to the audio line.
+ * There is only one writer and one reader, so the positions are only ever increased by their own thread and no locking is needed.
+ * Samples that doesn't fit in the buffer is dropped, unless pacing where the emulator thread instead waits until the fill is down to the target.
+ */
 public class JavaSoundPlayback implements SoundPlayback {
     private static final Logger log = LoggerFactory.getLogger(JavaSoundPlayback.class);
-    private static final int BUFFER_TIME_MS = 100;
+    private static final int BUFFER_TIME_MS = 50;
+    private static final int LINE_BUFFER_TIME_MS = 20;
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
 
-    private final ReentrantReadWriteLock bufferLock = new ReentrantReadWriteLock();
+    private final AtomicLong writePosition = new AtomicLong(0);
+    private final AtomicLong readPosition = new AtomicLong(0);
+    private final byte[] sample = new byte[CHANNELS];
+    private final int samplingRate;
+    private final boolean pacing;
     private SourceDataLine line;
 
     private byte[] outputBuffer;
-    private int writeBufferPosition = 0;
-    private int readBufferPosition = 0;
-    private boolean playing = true;
+    private int bufferMask;
+    private volatile boolean playing = true;
+
+    public JavaSoundPlayback() {
+        this(SAMPLING_RATE, false);
+    }
+
+    public JavaSoundPlayback(int samplingRate, boolean pacing) {
+        this.samplingRate = samplingRate;
+        this.pacing = pacing;
+    }
+
+    public int samplingRate() {
+        return samplingRate;
+    }
+
+    public boolean pacing() {
+        return pacing;
+    }
+
+    public double bufferFill() {
+        return (double) (writePosition.get() - readPosition.get()) / outputBuffer.length;
+    }
 
     public void start(int samplingRate) {
         AudioFormat format = new AudioFormat(samplingRate, BITS_PER_SAMPLE, CHANNELS, true, true);
-        outputBuffer = new byte[(int) (((double) samplingRate) / 1000 * BUFFER_TIME_MS) * CHANNELS];
+        int bufferSize = bytesFor(samplingRate, BUFFER_TIME_MS);
+        outputBuffer = new byte[Integer.highestOneBit(bufferSize - 1) << 1]; //Power of two so the positions can be masked
+        bufferMask = outputBuffer.length - 1;
         try {
             line = AudioSystem.getSourceDataLine(format);
-            line.open(format, outputBuffer.length);
+            line.open(format, bytesFor(samplingRate, LINE_BUFFER_TIME_MS));
             line.start();
         } catch (LineUnavailableException e) {
             throw new RuntimeException(e);
@@ -41,39 +76,52 @@ public class JavaSoundPlayback implements SoundPlayback {
     }
 
     public void output(int left, int right) {
-        bufferLock.writeLock().lock();
-        try {
-            outputBuffer[writeBufferPosition++] = (byte) left;
-            outputBuffer[writeBufferPosition++] = (byte) right;
-            writeBufferPosition = writeBufferPosition % outputBuffer.length;
-        } finally {
-            bufferLock.writeLock().unlock();
+        sample[0] = (byte) left;
+        sample[1] = (byte) right;
+        output(sample, CHANNELS);
+    }
+
+    public void output(byte[] samples, int length) {
+        if (pacing) {
+            awaitSpace(length);
         }
+        long write = writePosition.get();
+        int free = outputBuffer.length - (int) (write - readPosition.get());
+        int count = Math.min(length, free) & -CHANNELS;
+        int start = (int) (write & bufferMask);
+        int first = Math.min(count, outputBuffer.length - start);
+        System.arraycopy(samples, 0, outputBuffer, start, first);
+        System.arraycopy(samples, first, outputBuffer, 0, count - first);
+        writePosition.lazySet(write + count);
     }
 
-    private int available() {
-        if (writeBufferPosition > readBufferPosition) {
-            return writeBufferPosition - readBufferPosition;
-        } else {
-            return outputBuffer.length - readBufferPosition + writeBufferPosition;
+    /**
+     * Waits until the block fits below the target plus one block instead of until the buffer has room, so the fill is kept
+     * just around the target. It can then be both above and below when the APU adjusts its rate, otherwise it would always be
+     * close to full and the APU could only ever slow down its rate.
+     */
+    private void awaitSpace(int length) {
+        int limit = (int) (outputBuffer.length * TARGET_BUFFER_FILL) + length;
+        while (playing && (int) (writePosition.get() - readPosition.get()) + length > limit) {
+            LockSupport.parkNanos(IDLE_WAIT_NANOS);
         }
     }
 
     private void playback() {
         while (playing) {
+            long read = readPosition.get();
+            int availableInput = (int) (writePosition.get() - read);
             int availableOutput = line.available();
-            if (availableOutput > 0) {
-                bufferLock.readLock().lock();
-                try {
-                    int availableInput = available();
-                    int outputCount = Math.min(availableOutput, availableInput);
-                    writeToLine(outputCount);
-                } finally {
-                    bufferLock.readLock().unlock();
-                }
+            int outputCount = Math.min(availableOutput, availableInput);
+            if (outputCount > 0) {
+                writeToLine(read, outputCount);
+                readPosition.lazySet(read + outputCount);
             } else {
-                //TODO: how to handle wait for available?
-                log.debug("No available bytes in output device");
+                if (availableOutput == 0) {
+                    //TODO: how to handle wait for available?
+                    log.debug("No available bytes in output device");
+                }
+                LockSupport.parkNanos(IDLE_WAIT_NANOS);
             }
         }
 
@@ -81,15 +129,16 @@ public class JavaSoundPlayback implements SoundPlayback {
         line.stop();
     }
 
-    private void writeToLine(int outputCount) {
-        if (readBufferPosition + outputCount > outputBuffer.length) {
-            int before = outputBuffer.length - readBufferPosition;
-            writeToLine(before);
-            writeToLine(outputCount - before);
-            return;
-        }
+    private static int bytesFor(int samplingRate, int ms) {
+        return (int) (((double) samplingRate) / 1000 * ms) * CHANNELS;
+    }
 
-        line.write(outputBuffer, readBufferPosition, outputCount);
-        readBufferPosition = (readBufferPosition + outputCount) % outputBuffer.length;
+    private void writeToLine(long read, int outputCount) {
+        int start = (int) (read & bufferMask);
+        int first = Math.min(outputCount, outputBuffer.length - start);
+        line.write(outputBuffer, start, first);
+        if (first < outputCount) {
+            line.write(outputBuffer, 0, outputCount - first);
+        }
     }
 }